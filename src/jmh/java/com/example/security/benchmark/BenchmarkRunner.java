@@ -0,0 +1,29 @@
+package com.example.security.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs every matching benchmark once per thread count with the GC profiler on.
+// Results go to target/jmh-result-t<threads>.json.
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException {
+        String include = System.getProperty("jmh.include", ".*Benchmark.*");
+        String threadCounts = System.getProperty("jmh.threads", "1,4,8");
+
+        for (String threads : threadCounts.split(",")) {
+            int count = Integer.parseInt(threads.trim());
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(count)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/jmh-result-t" + count + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
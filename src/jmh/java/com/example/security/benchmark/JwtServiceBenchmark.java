@@ -0,0 +1,143 @@
+package com.example.security.benchmark;
+
+import com.example.security.cache.InProcessClusterEventBus;
+import com.example.security.cache.VerifiedTokenCache;
+import com.example.security.enums.Role;
+import com.example.security.jwt.FastJwtVerifier;
+import com.example.security.jwt.JwtKeyRegistry;
+import com.example.security.jwt.JwtMinter;
+import com.example.security.jwt.VerifiedToken;
+import com.example.security.model.User;
+import com.example.security.repository.SigningKeyStateRepository;
+import com.example.security.service.JwtService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+// Sign, parse and validate paths of JwtService, wired by hand so no Spring context or database is needed.
+// Every read benchmark goes through JwtService.verify(), the path the request filter takes, so mode applies to all.
+//   JJWT   - jjwt builder/parser only, no verified-token cache
+//   FAST   - JwtMinter / FastJwtVerifier, no verified-token cache
+//   CACHED - fast paths plus VerifiedTokenCache
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtServiceBenchmark {
+    private static final String SECRET = "404E635266556A586E3272357538782F413F4428472B4B6250645367566B5970";
+
+    @Param({"0", "4", "16"})
+    public int extraClaims;
+
+    @Param({"JJWT", "FAST", "CACHED"})
+    public String mode;
+
+    private JwtService jwtService;
+    private User user;
+    private Map<String, Object> claims;
+    private String accessToken;
+
+    @Setup
+    public void setUp() {
+        JwtKeyRegistry keyRegistry = new JwtKeyRegistry();
+        ReflectionTestUtils.setField(keyRegistry, "SECRET_KEY", SECRET);
+        ReflectionTestUtils.setField(keyRegistry, "PRIMARY_KEY_ID", "primary");
+        ReflectionTestUtils.setField(keyRegistry, "ADDITIONAL_KEYS", "");
+        ReflectionTestUtils.setField(keyRegistry, "SIGNING_KEY_ID", "");
+        ReflectionTestUtils.setField(keyRegistry, "RETIRED_KEY_IDS", "");
+        ReflectionTestUtils.setField(keyRegistry, "ALGORITHM", "HS256");
+        ReflectionTestUtils.setField(keyRegistry, "ASYMMETRIC_KEY_ID", "");
+        ReflectionTestUtils.setField(keyRegistry, "PRIVATE_KEY", "");
+        ReflectionTestUtils.setField(keyRegistry, "PUBLIC_KEY", "");
+        ReflectionTestUtils.setField(keyRegistry, "clusterEventBus", new InProcessClusterEventBus());
+        ReflectionTestUtils.setField(keyRegistry, "signingKeyStateRepository", mock(SigningKeyStateRepository.class));
+        keyRegistry.init();
+
+        VerifiedTokenCache verifiedTokenCache = new VerifiedTokenCache();
+        ReflectionTestUtils.setField(verifiedTokenCache, "ENABLED", "CACHED".equals(mode));
+        ReflectionTestUtils.setField(verifiedTokenCache, "MAXIMUM_SIZE", 10_000L);
+        ReflectionTestUtils.setField(verifiedTokenCache, "RECORD_STATS", true);
+        ReflectionTestUtils.setField(verifiedTokenCache, "meterRegistry", new SimpleMeterRegistry());
+        verifiedTokenCache.init();
+
+        FastJwtVerifier fastJwtVerifier = new FastJwtVerifier();
+        ReflectionTestUtils.setField(fastJwtVerifier, "keyRegistry", keyRegistry);
+
+        jwtService = new JwtService();
+        ReflectionTestUtils.setField(jwtService, "keyRegistry", keyRegistry);
+        ReflectionTestUtils.setField(jwtService, "verifiedTokenCache", verifiedTokenCache);
+        ReflectionTestUtils.setField(jwtService, "fastJwtVerifier", fastJwtVerifier);
+        ReflectionTestUtils.setField(jwtService, "jwtMinter", new JwtMinter());
+        ReflectionTestUtils.setField(jwtService, "FAST_PATH_ENABLED", !"JJWT".equals(mode));
+        ReflectionTestUtils.setField(jwtService, "FAST_MINT_ENABLED", !"JJWT".equals(mode));
+        ReflectionTestUtils.setField(jwtService, "ACCESS_TOKEN_EXPIRATION", TimeUnit.MINUTES.toMillis(15));
+        ReflectionTestUtils.setField(jwtService, "REFRESH_TOKEN_EXPIRATION", TimeUnit.DAYS.toMillis(7));
+
+        user = User.builder()
+                .id(1)
+                .email("benchmark.user@example.com")
+                .firstName("Benchmark")
+                .lastName("User")
+                .role(Role.USER)
+                .build();
+        claims = new LinkedHashMap<>();
+        for (int i = 0; i < extraClaims; i++) {
+            claims.put("claim" + i, "value-" + i);
+        }
+        accessToken = jwtService.generateAccessToken(claims, user);
+    }
+
+    @Benchmark
+    public String generateAccessToken() {
+        return jwtService.generateAccessToken(claims, user);
+    }
+
+    @Benchmark
+    public String generateRefreshToken() {
+        return jwtService.generateRefreshToken(claims, user);
+    }
+
+    @Benchmark
+    public VerifiedToken verify() {
+        return jwtService.verify(accessToken);
+    }
+
+    @Benchmark
+    public String extractUsername() {
+        return jwtService.extractUsername(accessToken);
+    }
+
+    @Benchmark
+    public boolean isTokenValid() {
+        return jwtService.isTokenValid(accessToken, user);
+    }
+
+    @Benchmark
+    public boolean isTokenExpired() {
+        return jwtService.isTokenExpired(accessToken);
+    }
+
+    @Benchmark
+    public Date extractExpiration() {
+        return jwtService.extractExpiration(accessToken);
+    }
+}
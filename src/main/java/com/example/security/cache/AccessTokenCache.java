@@ -1,43 +1,274 @@
 package com.example.security.cache;
 
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.example.security.jwt.VerifiedToken;
+import com.example.security.service.JwtService;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 
+// Live access token per (user, session). A session is identified by the token's "sid" claim, which is the
+// client's device id when it sends one, and is keyed by the token's numeric "uid" claim. Only a 128-bit
+// fingerprint of the token is kept, in a fixed 128-byte slot per session.
+// Every change is published on the ClusterEventBus and replayed by the other nodes, so a logout on one replica
+// takes effect on all of them.
+// Sessions live on the heap by default; access-token-cache.store=mapped keeps them in a memory-mapped file that
+// is reloaded on restart, so a deploy does not log everyone out.
+// With token-denylist.enabled=true nothing is stored per session: every token is active unless the TokenDenylist
+// has it, so memory follows the number of logouts instead of the number of active users. The per-user session
+// limit is not enforced in that mode.
 @Slf4j
 @Component
 public class AccessTokenCache {
-    private final LoadingCache<String, String> accessTokenCache = CacheBuilder.newBuilder()
-            .maximumSize(1000)
-            .expireAfterWrite(15, TimeUnit.MINUTES)
-            .build(new CacheLoader<String, String>() {
-                @Override
-                public String load(String key) throws Exception {
-                    return null;
-                }
-            });
+    // Events published shortly before the store was last written are replayed too, to cover clock skew
+    private static final long REPLAY_MARGIN_MS = TimeUnit.MINUTES.toMillis(1);
+
+    @Value("${access-token-cache.store:heap}")
+    private String STORE;
+
+    // Upper bound for the heap store's slot array
+    @Value("${access-token-cache.maximum-bytes:33554432}")
+    private long MAXIMUM_BYTES;
+
+    @Value("${access-token-cache.mapped.path:data/access-token-sessions.bin}")
+    private String MAPPED_PATH;
+
+    // Slots in the mapped file (power of two, 128 bytes each)
+    @Value("${access-token-cache.mapped.capacity:1048576}")
+    private int MAPPED_CAPACITY;
+
+    @Value("${access-token-cache.max-sessions-per-user:5}")
+    private int MAX_SESSIONS_PER_USER;
+
+    @Autowired
+    private JwtService jwtService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ClusterEventBus clusterEventBus;
+
+    @Autowired
+    private TokenDenylist tokenDenylist;
+
+    @Value("${token-denylist.enabled:false}")
+    private boolean DENYLIST_ENABLED;
+
+    @Value("${session-bus.type:in-process}")
+    private String SESSION_BUS_TYPE;
+
+    @Value("${token.access-token-expiration}")
+    private long ACCESS_TOKEN_EXPIRATION;
+
+    // Identifies this node's events so they are not applied twice
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private SessionStore store;
+    private Counter hits;
+    private Counter misses;
+
+    @PostConstruct
+    public void init() {
+        clusterEventBus.subscribe(this::onEvent);
+        if (DENYLIST_ENABLED) {
+            // The denylist is in memory only and is rebuilt from session_events on startup. Without that log a
+            // restart would forget every logout and make revoked tokens valid again.
+            if (!"jdbc".equalsIgnoreCase(SESSION_BUS_TYPE)) {
+                throw new IllegalStateException("token-denylist.enabled=true requires session-bus.type=jdbc");
+            }
+            clusterEventBus.replaySince(System.currentTimeMillis() - ACCESS_TOKEN_EXPIRATION - REPLAY_MARGIN_MS);
+            log.info("Access tokens are checked against the token denylist");
+            return;
+        }
+        if ("mapped".equalsIgnoreCase(STORE)) {
+            store = new MappedSessionStore(Path.of(MAPPED_PATH), MAPPED_CAPACITY);
+        } else {
+            store = new HeapSessionStore(MAXIMUM_BYTES);
+        }
+        Gauge.builder("access-tokens.sessions", store, SessionStore::size).register(meterRegistry);
+        Gauge.builder("access-tokens.capacity", store, SessionStore::capacity).register(meterRegistry);
+        FunctionCounter.builder("access-tokens.evictions", store, SessionStore::evictions).register(meterRegistry);
+        // Same meters the Caffeine-backed cache published, so existing hit ratio dashboards keep working
+        hits = Counter.builder("cache.gets").tags("cache", "access-tokens", "result", "hit").register(meterRegistry);
+        misses = Counter.builder("cache.gets").tags("cache", "access-tokens", "result", "miss").register(meterRegistry);
+        if (store.restoredFrom() > 0) {
+            // Catch up on logins and logouts other nodes made while this one was down
+            clusterEventBus.replaySince(store.restoredFrom() - REPLAY_MARGIN_MS);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    // Stores the token as the live one for its session; returns the sessions pushed out by the per-user limit
+    public List<String> put(Integer userId, String accessToken) {
+        if (DENYLIST_ENABLED) {
+            return List.of();
+        }
+        VerifiedToken token = jwtService.verify(accessToken);
+        String sessionId = jwtService.sessionIdOf(token);
+        TokenFingerprint fingerprint = TokenFingerprint.of(accessToken);
+        long expiresAt = token.getExpiresAt() != null ? token.getExpiresAt().toEpochMilli() : Long.MAX_VALUE;
+        long createdAt = System.currentTimeMillis();
 
-    public void put(String email, String accessToken) {
-        log.info("Storing access token for user ID: {}", email);
-        accessTokenCache.put(email, accessToken);
+        List<String> displaced = store.put(userId, sessionId, fingerprint, expiresAt, createdAt, MAX_SESSIONS_PER_USER);
+        log.info("Storing access token for user ID: {} session: {}", userId, sessionId);
+        clusterEventBus.publish(ClusterEvent.started(nodeId, userId, sessionId, fingerprint, expiresAt, createdAt));
+        if (!displaced.isEmpty()) {
+            log.info("Session limit reached for user ID: {}, revoked sessions: {}", userId, displaced);
+            // Other nodes may hold sessions this one does not know about, so they are told explicitly
+            for (String revoked : displaced) {
+                clusterEventBus.publish(ClusterEvent.sessionRevoked(nodeId, userId, revoked, createdAt));
+            }
+        }
+        return displaced;
     }
 
-    public String get(String email) {
-        return accessTokenCache.getUnchecked(email);
+    // Tokens without a uid claim predate the session store and are never active, and neither is anything that is
+    // not an access token: in denylist mode a refresh token would otherwise pass until it expires
+    public boolean isActive(VerifiedToken token, String accessToken) {
+        Integer userId = jwtService.userIdOf(token);
+        if (userId == null || !jwtService.isAccessToken(token)) {
+            return false;
+        }
+        if (DENYLIST_ENABLED) {
+            long issuedAt = token.getIssuedAt() != null ? token.getIssuedAt().toEpochMilli() : 0;
+            return !tokenDenylist.isRevoked(userId, jwtService.sessionIdOf(token), jwtService.tokenIdOf(token),
+                    issuedAt, System.currentTimeMillis());
+        }
+        boolean active = store.matches(userId, jwtService.sessionIdOf(token), TokenFingerprint.of(accessToken),
+                System.currentTimeMillis());
+        (active ? hits : misses).increment();
+        return active;
     }
 
-    public void invalidate(String email) {
-        accessTokenCache.invalidate(email);
-        log.info("Invalidated access token for user ID: {}", email);
+    // Not tracked in denylist mode
+    public int sessionCount(Integer userId) {
+        return store != null ? store.sessionCount(userId) : 0;
     }
 
+    // Revokes one access token: its jti in denylist mode, otherwise its session while it is the live token there
+    public void revokeToken(VerifiedToken token, String accessToken) {
+        Integer userId = jwtService.userIdOf(token);
+        if (userId == null) {
+            return;
+        }
+        String sessionId = jwtService.sessionIdOf(token);
+        String tokenId = jwtService.tokenIdOf(token);
+        TokenFingerprint fingerprint = TokenFingerprint.of(accessToken);
+        long expiresAt = token.getExpiresAt() != null ? token.getExpiresAt().toEpochMilli() : Long.MAX_VALUE;
+        applyTokenRevoked(userId, sessionId, tokenId, fingerprint, expiresAt);
+        clusterEventBus.publish(ClusterEvent.tokenRevoked(nodeId, userId, sessionId, tokenId, fingerprint, expiresAt,
+                System.currentTimeMillis()));
+    }
+
+    public void revokeSession(Integer userId, String sessionId) {
+        long revokedAt = System.currentTimeMillis();
+        applySessionRevoked(userId, sessionId, revokedAt);
+        clusterEventBus.publish(ClusterEvent.sessionRevoked(nodeId, userId, sessionId, revokedAt));
+        log.info("Revoked session {} for user ID: {}", sessionId, userId);
+    }
+
+    // Returns the revoked session id, or null if the user has no session (always null in denylist mode)
+    public String revokeOldest(Integer userId) {
+        if (store == null) {
+            return null;
+        }
+        String revoked = store.removeOldest(userId);
+        if (revoked != null) {
+            clusterEventBus.publish(ClusterEvent.sessionRevoked(nodeId, userId, revoked, System.currentTimeMillis()));
+        }
+        return revoked;
+    }
+
+    // Revokes every session of the user
+    public void invalidate(Integer userId) {
+        long revokedAt = System.currentTimeMillis();
+        applyUserRevoked(userId, revokedAt);
+        clusterEventBus.publish(ClusterEvent.userRevoked(nodeId, userId, revokedAt));
+        log.info("Invalidated access token for user ID: {}", userId);
+    }
+
+    // Local only, e.g. to drop state in tests; not broadcast
     public void invalidateAll() {
-        accessTokenCache.invalidateAll();
+        if (store != null) {
+            store.clear();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${access-token-cache.sweep-interval-ms:60000}")
+    public void sweepExpired() {
+        if (store != null) {
+            store.sweep(System.currentTimeMillis());
+        }
+    }
+
+    // Applies an event from another node without publishing it again
+    void onEvent(ClusterEvent event) {
+        if (nodeId.equals(event.origin())) {
+            return;
+        }
+        switch (event.type()) {
+            case SESSION_STARTED -> {
+                if (store != null && event.expiresAt() > System.currentTimeMillis()) {
+                    store.put(event.userId(), event.sessionId(), event.fingerprint(), event.expiresAt(),
+                            event.createdAt(), MAX_SESSIONS_PER_USER);
+                }
+            }
+            case SESSION_REVOKED -> applySessionRevoked(event.userId(), event.sessionId(), event.createdAt());
+            case USER_REVOKED -> applyUserRevoked(event.userId(), event.createdAt());
+            case TOKEN_REVOKED -> applyTokenRevoked(event.userId(), event.sessionId(), event.tokenId(),
+                    event.fingerprint(), event.expiresAt());
+            case REFRESH_TOKEN_ROTATED, SIGNING_KEY_ACTIVATED, SIGNING_KEY_RETIRED, USER_DETAILS_CHANGED -> {
+                // Concern RefreshTokenIndex, JwtKeyRegistry and UserDetailsCache
+            }
+        }
+    }
+
+    private void applySessionRevoked(long userId, String sessionId, long revokedAt) {
+        if (DENYLIST_ENABLED) {
+            tokenDenylist.revokeSession(userId, sessionId, revokedAt);
+        } else {
+            store.remove(userId, sessionId);
+        }
+    }
+
+    private void applyUserRevoked(long userId, long revokedAt) {
+        if (DENYLIST_ENABLED) {
+            tokenDenylist.revokeUser(userId, revokedAt);
+        } else {
+            store.removeUser(userId);
+        }
+    }
+
+    private void applyTokenRevoked(long userId, String sessionId, String tokenId, TokenFingerprint fingerprint,
+                                   long expiresAt) {
+        if (!DENYLIST_ENABLED) {
+            store.remove(userId, sessionId, fingerprint);
+        } else if (tokenId != null) {
+            tokenDenylist.revokeToken(tokenId, expiresAt);
+        } else {
+            // Issued before the denylist mode was switched on; only its whole session can be revoked
+            tokenDenylist.revokeSession(userId, sessionId, System.currentTimeMillis());
+        }
     }
 }
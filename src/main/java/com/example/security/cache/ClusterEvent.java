@@ -0,0 +1,70 @@
+package com.example.security.cache;
+
+// Change broadcast between nodes: sessions and refresh tokens, signing keys and user details. The fields are the
+// ones session events need; the other kinds use the subset their factory method fills in. Carries only the token
+// fingerprint and jti, never the token itself.
+public record ClusterEvent(
+        Type type,
+        String origin,
+        long userId,
+        String sessionId,
+        String tokenId,
+        long fingerprintHigh,
+        long fingerprintLow,
+        long expiresAt,
+        long createdAt
+) {
+    public enum Type {
+        SESSION_STARTED,
+        SESSION_REVOKED,
+        USER_REVOKED,
+        TOKEN_REVOKED,
+        // A login replaced the refresh token of the session
+        REFRESH_TOKEN_ROTATED,
+        // An admin switched the JWT signing key or retired one; the kid travels in tokenId
+        SIGNING_KEY_ACTIVATED,
+        SIGNING_KEY_RETIRED,
+        // A user's row changed; other nodes drop their cached UserDetails for it
+        USER_DETAILS_CHANGED
+    }
+
+    public static ClusterEvent started(String origin, long userId, String sessionId, TokenFingerprint fingerprint,
+                                       long expiresAt, long createdAt) {
+        return new ClusterEvent(Type.SESSION_STARTED, origin, userId, sessionId, null,
+                fingerprint.high(), fingerprint.low(), expiresAt, createdAt);
+    }
+
+    public static ClusterEvent sessionRevoked(String origin, long userId, String sessionId, long revokedAt) {
+        return new ClusterEvent(Type.SESSION_REVOKED, origin, userId, sessionId, null, 0, 0, 0, revokedAt);
+    }
+
+    public static ClusterEvent userRevoked(String origin, long userId, long revokedAt) {
+        return new ClusterEvent(Type.USER_REVOKED, origin, userId, null, null, 0, 0, 0, revokedAt);
+    }
+
+    public static ClusterEvent tokenRevoked(String origin, long userId, String sessionId, String tokenId,
+                                            TokenFingerprint fingerprint, long expiresAt, long revokedAt) {
+        return new ClusterEvent(Type.TOKEN_REVOKED, origin, userId, sessionId, tokenId,
+                fingerprint.high(), fingerprint.low(), expiresAt, revokedAt);
+    }
+
+    public static ClusterEvent refreshTokenRotated(String origin, long userId, String sessionId, long rotatedAt) {
+        return new ClusterEvent(Type.REFRESH_TOKEN_ROTATED, origin, userId, sessionId, null, 0, 0, 0, rotatedAt);
+    }
+
+    public static ClusterEvent signingKeyActivated(String origin, String keyId, long activatedAt) {
+        return new ClusterEvent(Type.SIGNING_KEY_ACTIVATED, origin, 0, null, keyId, 0, 0, 0, activatedAt);
+    }
+
+    public static ClusterEvent signingKeyRetired(String origin, String keyId, long retiredAt) {
+        return new ClusterEvent(Type.SIGNING_KEY_RETIRED, origin, 0, null, keyId, 0, 0, 0, retiredAt);
+    }
+
+    public static ClusterEvent userDetailsChanged(String origin, long userId, long changedAt) {
+        return new ClusterEvent(Type.USER_DETAILS_CHANGED, origin, userId, null, null, 0, 0, 0, changedAt);
+    }
+
+    public TokenFingerprint fingerprint() {
+        return new TokenFingerprint(fingerprintHigh, fingerprintLow);
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.security.cache;
+
+import java.util.function.Consumer;
+
+// Carries ClusterEvents to every node: session starts and revocations for AccessTokenCache, refresh token
+// rotations for RefreshTokenIndex, key changes for JwtKeyRegistry and user changes for UserDetailsCache.
+// Listeners receive every kind, also the node's own events, and are expected to skip them by type and origin.
+// Configured with session-bus.*, the name it had when it only carried sessions.
+public interface ClusterEventBus {
+    void publish(ClusterEvent event);
+
+    void subscribe(Consumer<ClusterEvent> listener);
+
+    // Redelivers past events created at or after the given time, for a node that restored its sessions from disk
+    default void replaySince(long sinceMillis) {
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.security.cache;
+
+import java.nio.ByteBuffer;
+
+// Sessions in one heap byte array that doubles as users log in, up to maximumBytes. The array holds no
+// references, so the GC never has to trace individual sessions.
+final class HeapSessionStore extends SessionStore {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 23;
+
+    private final int maxCapacity;
+
+    HeapSessionStore(long maximumBytes) {
+        int limit = (int) Math.min(MAX_CAPACITY, Math.max(INITIAL_CAPACITY, maximumBytes / SLOT_BYTES));
+        maxCapacity = Integer.highestOneBit(limit);
+        open(allocate(Math.min(INITIAL_CAPACITY, maxCapacity)), false, 0);
+    }
+
+    @Override
+    Table grow(Table current) {
+        if (current.capacity() >= maxCapacity) {
+            return null;
+        }
+        return allocate(current.capacity() * 2);
+    }
+
+    private static Table allocate(int capacity) {
+        return new Table(ByteBuffer.allocate(capacity * SLOT_BYTES), 0, capacity);
+    }
+}
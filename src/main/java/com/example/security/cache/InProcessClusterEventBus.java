@@ -0,0 +1,27 @@
+package com.example.security.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+// Delivers events synchronously inside this JVM; enough for a single node and for tests that wire several caches
+@Component
+@ConditionalOnProperty(name = "session-bus.type", havingValue = "in-process", matchIfMissing = true)
+public class InProcessClusterEventBus implements ClusterEventBus {
+    private final List<Consumer<ClusterEvent>> listeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(ClusterEvent event) {
+        for (Consumer<ClusterEvent> listener : listeners) {
+            listener.accept(event);
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<ClusterEvent> listener) {
+        listeners.add(listener);
+    }
+}
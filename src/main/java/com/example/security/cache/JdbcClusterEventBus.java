@@ -0,0 +1,286 @@
+package com.example.security.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.security.exception.ServiceOverloadedException;
+import com.example.security.model.ClusterEventLog;
+import com.example.security.repository.ClusterEventLogRepository;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+// Shares cluster events through the session_events table. Publishing only queues the event; a flush writes the
+// queue in one JDBC batch and every node polls for rows past the last id it has seen, so an event reaches the
+// other nodes within roughly flush-interval + poll-interval.
+// The bus runs on threads of its own, so a database outage that stalls its writes or polls never holds up the
+// shared @Scheduled thread. Unwritten events stay queued in order, up to max-pending; past that, publishing
+// fails with ServiceOverloadedException rather than silently dropping a revocation.
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "session-bus.type", havingValue = "jdbc")
+public class JdbcClusterEventBus implements ClusterEventBus {
+    private static final String INSERT_SQL = "INSERT INTO session_events "
+            + "(type, origin, user_id, session_id, token_id, fingerprint_high, fingerprint_low, expires_at, created_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    @Value("${session-bus.flush-interval-ms:100}")
+    private long FLUSH_INTERVAL_MS;
+
+    @Value("${session-bus.poll-interval-ms:500}")
+    private long POLL_INTERVAL_MS;
+
+    @Value("${session-bus.purge-interval-ms:600000}")
+    private long PURGE_INTERVAL_MS;
+
+    @Value("${session-bus.batch-size:500}")
+    private int BATCH_SIZE;
+
+    @Value("${session-bus.max-pending:100000}")
+    private int MAX_PENDING;
+
+    @Value("${session-bus.retry-after-seconds:2}")
+    private long RETRY_AFTER_SECONDS;
+
+    // How long a missing id is waited for before the poller moves past it
+    @Value("${session-bus.gap-timeout-ms:10000}")
+    private long GAP_TIMEOUT_MS;
+
+    // Must exceed the access token lifetime so a lagging node still sees every revocation
+    @Value("${session-bus.retention-minutes:1440}")
+    private long RETENTION_MINUTES;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ClusterEventLogRepository clusterEventLogRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final List<Consumer<ClusterEvent>> listeners = new CopyOnWriteArrayList<>();
+    // Only flush removes events, and only from the head once they are written
+    private LinkedBlockingDeque<ClusterEvent> pending;
+    // Separate from the poller's monitor, so writes and polls do not wait on each other
+    private final Object flushLock = new Object();
+    private ScheduledExecutorService executor;
+
+    // Poller state, only touched by the scheduled poll. Ids are allocated before commit, so a lower id can become
+    // visible after a higher one; rows above a gap are remembered in "delivered" until the gap closes or times out.
+    private long lastId;
+    private final TreeSet<Long> delivered = new TreeSet<>();
+    private final Map<Long, Long> gapsSeenAt = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        // Events from before this node started concern sessions it never cached
+        lastId = clusterEventLogRepository.findMaxId();
+        log.info("Cluster event bus starting after event {}", lastId);
+        pending = new LinkedBlockingDeque<>(MAX_PENDING);
+        Gauge.builder("session-bus.pending", pending, LinkedBlockingDeque::size).register(meterRegistry);
+    }
+
+    // Started once the context is up, like @Scheduled tasks, so no event is polled before the caches subscribe
+    @EventListener(ContextRefreshedEvent.class)
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        // Two threads, so a poll stuck on a slow query does not also delay writing this node's revocations
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "session-bus-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(guarded("flush", this::flush), FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(guarded("poll", this::poll), POLL_INTERVAL_MS, POLL_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+        executor.scheduleWithFixedDelay(guarded("purge", this::purge), PURGE_INTERVAL_MS, PURGE_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void publish(ClusterEvent event) {
+        if (!pending.offerLast(event)) {
+            log.warn("Cluster event queue is full ({} events), rejecting {} for user ID: {}", MAX_PENDING,
+                    event.type(), event.userId());
+            throw new ServiceOverloadedException("Hệ thống đang quá tải. Vui lòng thử lại sau", RETRY_AFTER_SECONDS);
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<ClusterEvent> listener) {
+        listeners.add(listener);
+    }
+
+    // Events past lastId are left to the regular poll
+    @Override
+    public synchronized void replaySince(long sinceMillis) {
+        long from = 0;
+        int replayed = 0;
+        List<ClusterEventLog> rows;
+        do {
+            rows = clusterEventLogRepository.findForReplay(from, lastId, sinceMillis, PageRequest.of(0, BATCH_SIZE));
+            for (ClusterEventLog row : rows) {
+                dispatch(row);
+                from = row.getId();
+            }
+            replayed += rows.size();
+        } while (rows.size() == BATCH_SIZE);
+        delivered.headSet(lastId, true).clear();
+        log.info("Replayed {} cluster events since {}", replayed, sinceMillis);
+    }
+
+    // Writes what was queued when the flush started, batch by batch. A failed batch stays at the head of the queue
+    // and the flush stops, so the next one retries it first and events are written in the order published.
+    void flush() {
+        synchronized (flushLock) {
+            int remaining = pending.size();
+            while (remaining > 0) {
+                List<ClusterEvent> batch = new ArrayList<>(Math.min(remaining, BATCH_SIZE));
+                Iterator<ClusterEvent> events = pending.iterator();
+                while (batch.size() < BATCH_SIZE && batch.size() < remaining && events.hasNext()) {
+                    batch.add(events.next());
+                }
+                if (batch.isEmpty() || !write(batch)) {
+                    return;
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    pending.pollFirst();
+                }
+                remaining -= batch.size();
+            }
+        }
+    }
+
+    synchronized void poll() {
+        long from = lastId;
+        List<ClusterEventLog> rows;
+        do {
+            rows = clusterEventLogRepository.findByIdGreaterThanOrderByIdAsc(from, PageRequest.of(0, BATCH_SIZE));
+            for (ClusterEventLog row : rows) {
+                if (!delivered.contains(row.getId())) {
+                    dispatch(row);
+                }
+                from = row.getId();
+            }
+        } while (rows.size() == BATCH_SIZE);
+        advance();
+    }
+
+    // Runs on every node; the delete is idempotent
+    void purge() {
+        long before = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(RETENTION_MINUTES);
+        Integer deleted = new TransactionTemplate(transactionManager)
+                .execute(status -> clusterEventLogRepository.deleteCreatedBefore(before));
+        if (deleted != null && deleted > 0) {
+            log.info("Purged {} cluster events", deleted);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        // Revocations issued during shutdown must still reach the other nodes
+        flush();
+    }
+
+    // A task that throws would never be scheduled again
+    private Runnable guarded(String task, Runnable runnable) {
+        return () -> {
+            try {
+                runnable.run();
+            } catch (RuntimeException e) {
+                log.warn("Session bus {} failed: {}", task, e.getMessage());
+            }
+        };
+    }
+
+    private boolean write(List<ClusterEvent> batch) {
+        try {
+            jdbcTemplate.batchUpdate(INSERT_SQL, batch, batch.size(), (ps, e) -> {
+                ps.setString(1, e.type().name());
+                ps.setString(2, e.origin());
+                ps.setLong(3, e.userId());
+                ps.setString(4, e.sessionId());
+                ps.setString(5, e.tokenId());
+                ps.setLong(6, e.fingerprintHigh());
+                ps.setLong(7, e.fingerprintLow());
+                ps.setLong(8, e.expiresAt());
+                ps.setLong(9, e.createdAt());
+            });
+            return true;
+        } catch (RuntimeException ex) {
+            // Left queued for the next flush rather than losing a revocation
+            log.warn("Could not write {} cluster events ({} queued), retrying: {}", batch.size(), pending.size(),
+                    ex.getMessage());
+            return false;
+        }
+    }
+
+    private void dispatch(ClusterEventLog row) {
+        delivered.add(row.getId());
+        ClusterEvent event = new ClusterEvent(row.getType(), row.getOrigin(), row.getUserId(), row.getSessionId(),
+                row.getTokenId(), row.getFingerprintHigh(), row.getFingerprintLow(), row.getExpiresAt(), row.getCreatedAt());
+        for (Consumer<ClusterEvent> listener : listeners) {
+            try {
+                listener.accept(event);
+            } catch (RuntimeException ex) {
+                log.warn("Cluster event listener failed for event {}: {}", row.getId(), ex.getMessage());
+            }
+        }
+    }
+
+    // Moves lastId over delivered ids and over gaps that have been open longer than the timeout
+    private void advance() {
+        long now = System.currentTimeMillis();
+        while (!delivered.isEmpty()) {
+            long next = lastId + 1;
+            if (delivered.remove(next)) {
+                gapsSeenAt.remove(next);
+                lastId = next;
+                continue;
+            }
+            long seenAt = gapsSeenAt.computeIfAbsent(next, id -> now);
+            if (now - seenAt < GAP_TIMEOUT_MS) {
+                break;
+            }
+            // Rolled back insert or a writer that stalled past the timeout
+            gapsSeenAt.remove(next);
+            lastId = next;
+        }
+    }
+}
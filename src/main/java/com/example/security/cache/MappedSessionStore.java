@@ -0,0 +1,110 @@
+package com.example.security.cache;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Sessions in a memory-mapped file, outside the GC heap, that survives a restart. The file is a 64-byte header
+// followed by the slot table; the header records whether the last shutdown was clean and when the table was last
+// written, which tells AccessTokenCache which bus events it missed.
+@Slf4j
+final class MappedSessionStore extends SessionStore {
+    private static final long MAGIC = 0x5345535354524531L; // "SESSTRE1"
+    // 2: slots keyed by user id instead of a hash of the email
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 64;
+    private static final int MAX_CAPACITY = 1 << 23;
+
+    // Header fields
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 8;
+    private static final int CAPACITY_OFFSET = 12;
+    private static final int CLEAN_OFFSET = 16;
+    private static final int MODIFIED_OFFSET = 24;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long restoredFrom;
+
+    MappedSessionStore(Path path, int capacity) {
+        if (capacity < 2 || capacity > MAX_CAPACITY || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Session store capacity must be a power of two up to " + MAX_CAPACITY);
+        }
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            long length = HEADER_BYTES + (long) capacity * SLOT_BYTES;
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long existingLength = channel.size();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            boolean reusable = existingLength == length
+                    && buffer.getLong(MAGIC_OFFSET) == MAGIC
+                    && buffer.getInt(VERSION_OFFSET) == VERSION
+                    && buffer.getInt(CAPACITY_OFFSET) == capacity;
+            Table table = new Table(buffer, HEADER_BYTES, capacity);
+
+            if (reusable) {
+                restoredFrom = buffer.getLong(MODIFIED_OFFSET);
+                boolean clean = buffer.getInt(CLEAN_OFFSET) == 1;
+                long started = System.nanoTime();
+                long now = System.currentTimeMillis();
+                // A crash can leave a shift half done; putting every entry back in place makes all of them reachable
+                open(table, !clean, now);
+                sweep(now);
+                log.info("Restored {} sessions from {} in {} ms ({} shutdown)", size(), path,
+                        (System.nanoTime() - started) / 1_000_000, clean ? "clean" : "unclean");
+            } else {
+                if (existingLength > 0) {
+                    log.warn("Session store {} has a different layout or capacity, starting empty", path);
+                }
+                restoredFrom = 0;
+                buffer.putLong(MAGIC_OFFSET, MAGIC);
+                buffer.putInt(VERSION_OFFSET, VERSION);
+                buffer.putInt(CAPACITY_OFFSET, capacity);
+                open(table, false, 0);
+                clear();
+            }
+            buffer.putInt(CLEAN_OFFSET, 0);
+            touch();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open session store " + path, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        locked(() -> {
+            touch();
+            buffer.putInt(CLEAN_OFFSET, 1);
+            buffer.force();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Could not close session store: {}", e.getMessage());
+            }
+        });
+    }
+
+    @Override
+    long restoredFrom() {
+        return restoredFrom;
+    }
+
+    @Override
+    Table grow(Table current) {
+        // The file keeps its size; raise access-token-cache.mapped.capacity instead
+        return null;
+    }
+
+    @Override
+    void touch() {
+        buffer.putLong(MODIFIED_OFFSET, System.currentTimeMillis());
+    }
+}
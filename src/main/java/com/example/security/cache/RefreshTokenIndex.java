@@ -0,0 +1,155 @@
+package com.example.security.cache;
+
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+// Live refresh token per (user, session), in front of the refresh_tokens lookup, so a refresh is answered without
+// touching the database. Holds the token hash, its expiry and the user's email, never the token itself.
+// Logout, session limits and logins that replace a session's refresh token drop the entry here and, through the
+// ClusterEventBus, on the other nodes.
+@Slf4j
+@Component
+public class RefreshTokenIndex {
+    private static final int STRIPES = 64;
+
+    @Value("${refresh-index.enabled:true}")
+    private boolean ENABLED;
+
+    @Value("${refresh-index.maximum-size:100000}")
+    private long MAXIMUM_SIZE;
+
+    // Entries are reloaded at least this often, which also bounds how long a missed bus event can go unnoticed
+    @Value("${refresh-index.ttl-seconds:3600}")
+    private long TTL_SECONDS;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ClusterEventBus clusterEventBus;
+
+    public record Entry(byte[] tokenHash, String email, Instant expiryDate) {
+    }
+
+    private record Key(long userId, String sessionId) {
+    }
+
+    private final String nodeId = UUID.randomUUID().toString();
+    // Bumped by every invalidation, so a row read before a concurrent logout or rotation is not cached after it
+    private final AtomicLongArray versions = new AtomicLongArray(STRIPES);
+    private Cache<Key, Entry> entries;
+
+    @PostConstruct
+    public void init() {
+        if (!ENABLED) {
+            log.info("Refresh token index is disabled");
+            return;
+        }
+        entries = Caffeine.newBuilder()
+                .maximumSize(MAXIMUM_SIZE)
+                .expireAfterWrite(Duration.ofSeconds(TTL_SECONDS))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, entries, "refresh-tokens.index");
+        clusterEventBus.subscribe(this::onEvent);
+    }
+
+    // Null unless the session's live refresh token has this hash and has not expired
+    public Entry get(long userId, String sessionId, byte[] tokenHash) {
+        if (entries == null) {
+            return null;
+        }
+        Entry entry = entries.getIfPresent(new Key(userId, sessionId));
+        if (entry == null || !MessageDigest.isEqual(entry.tokenHash(), tokenHash)
+                || !entry.expiryDate().isAfter(Instant.now())) {
+            return null;
+        }
+        return entry;
+    }
+
+    // Read before the database lookup whose result is passed to put
+    public long version(long userId) {
+        return versions.get(stripe(userId));
+    }
+
+    public void put(long userId, String sessionId, long version, Entry entry) {
+        if (entries == null) {
+            return;
+        }
+        int stripe = stripe(userId);
+        // Checked under the entry's lock, so an invalidation either sees the new entry or bumped the version first
+        entries.asMap().compute(new Key(userId, sessionId),
+                (key, existing) -> versions.get(stripe) == version ? entry : existing);
+    }
+
+    // A login wrote a new refresh token for the session
+    public void rotated(long userId, String sessionId) {
+        invalidate(userId, sessionId);
+        clusterEventBus.publish(ClusterEvent.refreshTokenRotated(nodeId, userId, sessionId, System.currentTimeMillis()));
+    }
+
+    public void invalidate(long userId, String sessionId) {
+        if (entries == null) {
+            return;
+        }
+        Key key = new Key(userId, sessionId);
+        drop(userId, () -> entries.invalidate(key));
+    }
+
+    public void invalidateUser(long userId) {
+        if (entries == null) {
+            return;
+        }
+        drop(userId, () -> entries.asMap().keySet().removeIf(key -> key.userId() == userId));
+    }
+
+    private void drop(long userId, Runnable removal) {
+        versions.incrementAndGet(stripe(userId));
+        removal.run();
+        // A concurrent refresh may reload the old row before our transaction commits; drop it again after commit
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    versions.incrementAndGet(stripe(userId));
+                    removal.run();
+                }
+            });
+        }
+    }
+
+    // Own events were applied when they were published
+    private void onEvent(ClusterEvent event) {
+        if (nodeId.equals(event.origin())) {
+            return;
+        }
+        switch (event.type()) {
+            case SESSION_REVOKED, REFRESH_TOKEN_ROTATED -> invalidate(event.userId(), event.sessionId());
+            case USER_REVOKED -> invalidateUser(event.userId());
+            default -> {
+                // SESSION_STARTED is also sent by every refresh, and TOKEN_REVOKED only concerns access tokens
+            }
+        }
+    }
+
+    private static int stripe(long userId) {
+        return (int) ((userId * 0x9E3779B97F4A7C15L) >>> 58);
+    }
+}
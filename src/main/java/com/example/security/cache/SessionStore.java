@@ -0,0 +1,496 @@
+package com.example.security.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+// Backend of AccessTokenCache: an open-addressing hash table of fixed-size slots in a single ByteBuffer, keyed by
+// the numeric user id with linear probing, so all sessions of a user sit in the run of slots after the user's home
+// slot. Nothing per session lives on the GC heap. Deletes shift later entries back instead of leaving tombstones.
+//
+// Slot layout (128 bytes): user id, fingerprint high, fingerprint low, expiresAt, createdAt, session id length,
+// session id (ASCII, up to 64 bytes). A user id of 0 marks an empty slot.
+abstract class SessionStore implements AutoCloseable {
+    static final int SLOT_BYTES = 128;
+    static final int MAX_SESSION_ID_BYTES = 64;
+
+    // Slot fields
+    private static final int USER = 0;
+    private static final int FINGERPRINT_HIGH = 8;
+    private static final int FINGERPRINT_LOW = 16;
+    private static final int EXPIRES_AT = 24;
+    private static final int CREATED_AT = 32;
+    private static final int SESSION_ID_LENGTH = 40;
+    private static final int SESSION_ID = 41;
+
+    // Above this load a put first sweeps expired sessions, then grows the table, then evicts
+    private static final double MAX_LOAD = 0.75;
+    // How far past the home slot a full table looks for a session to evict
+    private static final int EVICTION_WINDOW = 64;
+    // Slots the periodic sweep scans per write lock hold, so request threads never wait for a whole-table scan
+    private static final int SWEEP_SLICE = 4096;
+
+    // Writers take the write lock; readers try an optimistic read first and only lock when it was disturbed
+    private final StampedLock lock = new StampedLock();
+    // Swapped as a whole when the table grows, so a reader always sees a buffer and mask that belong together
+    private volatile Table table;
+    private int size;
+    private long evictions;
+
+    record Table(ByteBuffer buffer, int offset, int capacity, int mask) {
+        Table(ByteBuffer buffer, int offset, int capacity) {
+            this(buffer, offset, capacity, capacity - 1);
+        }
+
+        int slot(int index) {
+            return offset + index * SLOT_BYTES;
+        }
+
+        int home(long userId) {
+            long hash = userId * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+
+    // Called with the write lock held when the table is over its load factor; returns a larger table or null
+    abstract Table grow(Table current);
+
+    // Called with the write lock held after every change
+    void touch() {
+    }
+
+    // When the store was last written before this process started, or 0 if it started empty
+    long restoredFrom() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    final void open(Table initial, boolean rebuild, long now) {
+        table = initial;
+        if (rebuild) {
+            size = 0;
+            reinsert(collectLive(initial, now), initial);
+        } else {
+            size = countUsed(initial);
+        }
+    }
+
+    // Returns the sessions pushed out by the limit; the same session id keeps its original creation time
+    final List<String> put(long userId, String sessionId, TokenFingerprint fingerprint, long expiresAt, long createdAt,
+                           int maxSessions) {
+        checkUserId(userId);
+        byte[] sessionIdBytes = sessionId.getBytes(StandardCharsets.US_ASCII);
+        if (sessionIdBytes.length > MAX_SESSION_ID_BYTES) {
+            throw new IllegalArgumentException("Session id longer than " + MAX_SESSION_ID_BYTES + " bytes");
+        }
+        List<String> displaced = new ArrayList<>();
+        long stamp = lock.writeLock();
+        try {
+            Table t = table;
+            // Drop the user's expired sessions, then make room under the limit
+            int index;
+            while ((index = findExpired(t, userId, createdAt)) >= 0) {
+                delete(t, index);
+            }
+            int existing = find(t, userId, sessionIdBytes);
+            int others = countSessions(t, userId) - (existing >= 0 ? 1 : 0);
+            while (others >= Math.max(1, maxSessions)) {
+                int oldest = findOldest(t, userId, existing);
+                displaced.add(sessionIdAt(t, oldest));
+                delete(t, oldest);
+                others--;
+                existing = find(t, userId, sessionIdBytes);
+            }
+
+            if (existing >= 0) {
+                long created = t.buffer().getLong(t.slot(existing) + CREATED_AT);
+                write(t, existing, userId, fingerprint, expiresAt, created, sessionIdBytes);
+            } else {
+                t = makeRoom(t, userId, createdAt);
+                int free = t.home(userId);
+                while (t.buffer().getLong(t.slot(free) + USER) != 0) {
+                    free = (free + 1) & t.mask();
+                }
+                write(t, free, userId, fingerprint, expiresAt, createdAt, sessionIdBytes);
+                size++;
+            }
+            touch();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return displaced;
+    }
+
+    final boolean matches(long userId, String sessionId, TokenFingerprint fingerprint, long now) {
+        byte[] sessionIdBytes = sessionId.getBytes(StandardCharsets.US_ASCII);
+        if (userId <= 0 || sessionIdBytes.length > MAX_SESSION_ID_BYTES) {
+            return false;
+        }
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            boolean matches = matches(table, userId, sessionIdBytes, fingerprint, now);
+            if (lock.validate(stamp)) {
+                return matches;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return matches(table, userId, sessionIdBytes, fingerprint, now);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    final int sessionCount(long userId) {
+        long stamp = lock.readLock();
+        try {
+            return countSessions(table, userId);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    final void remove(long userId, String sessionId) {
+        byte[] sessionIdBytes = sessionId.getBytes(StandardCharsets.US_ASCII);
+        long stamp = lock.writeLock();
+        try {
+            int index = find(table, userId, sessionIdBytes);
+            if (index >= 0) {
+                delete(table, index);
+                touch();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Removes the session only while this token is still its live one
+    final void remove(long userId, String sessionId, TokenFingerprint fingerprint) {
+        byte[] sessionIdBytes = sessionId.getBytes(StandardCharsets.US_ASCII);
+        long stamp = lock.writeLock();
+        try {
+            int index = find(table, userId, sessionIdBytes);
+            if (index >= 0 && matches(table, userId, sessionIdBytes, fingerprint, Long.MIN_VALUE)) {
+                delete(table, index);
+                touch();
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Returns the removed session id, or null if the user has no session
+    final String removeOldest(long userId) {
+        long stamp = lock.writeLock();
+        try {
+            int oldest = findOldest(table, userId, -1);
+            if (oldest < 0) {
+                return null;
+            }
+            String sessionId = sessionIdAt(table, oldest);
+            delete(table, oldest);
+            touch();
+            return sessionId;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    final void removeUser(long userId) {
+        long stamp = lock.writeLock();
+        try {
+            int index;
+            while ((index = findOldest(table, userId, -1)) >= 0) {
+                delete(table, index);
+            }
+            touch();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    final void clear() {
+        long stamp = lock.writeLock();
+        try {
+            Table t = table;
+            for (int i = 0; i < t.capacity(); i++) {
+                t.buffer().putLong(t.slot(i) + USER, 0);
+            }
+            size = 0;
+            touch();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Slice by slice, releasing the lock in between; the table may grow between slices, which only means the
+    // rest of the new table is swept from the same position
+    final void sweep(long now) {
+        for (int from = 0; ; from += SWEEP_SLICE) {
+            long stamp = lock.writeLock();
+            try {
+                Table t = table;
+                if (from >= t.capacity()) {
+                    return;
+                }
+                sweep(t, from, Math.min(from + SWEEP_SLICE, t.capacity()), now);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    final void locked(Runnable action) {
+        long stamp = lock.writeLock();
+        try {
+            action.run();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    final int size() {
+        return size;
+    }
+
+    final int capacity() {
+        return table.capacity();
+    }
+
+    final long evictions() {
+        return evictions;
+    }
+
+    // Sweep, then grow, and only when neither frees a slot evict the nearest session to expire
+    private Table makeRoom(Table t, long userId, long now) {
+        if (size + 1 <= t.capacity() * MAX_LOAD) {
+            return t;
+        }
+        sweep(t, 0, t.capacity(), now);
+        if (size + 1 <= t.capacity() * MAX_LOAD) {
+            return t;
+        }
+        Table larger = grow(t);
+        if (larger != null) {
+            List<byte[]> live = collectLive(t, now);
+            size = 0;
+            reinsert(live, larger);
+            table = larger;
+            return larger;
+        }
+        int victim = -1;
+        int index = t.home(userId);
+        for (int probes = 0; probes < EVICTION_WINDOW; probes++, index = (index + 1) & t.mask()) {
+            int base = t.slot(index);
+            if (t.buffer().getLong(base + USER) != 0 && (victim < 0
+                    || t.buffer().getLong(base + EXPIRES_AT) < t.buffer().getLong(t.slot(victim) + EXPIRES_AT))) {
+                victim = index;
+            }
+        }
+        if (victim >= 0) {
+            delete(t, victim);
+            evictions++;
+        }
+        return t;
+    }
+
+    private static boolean matches(Table t, long userId, byte[] sessionIdBytes, TokenFingerprint fingerprint, long now) {
+        int index = find(t, userId, sessionIdBytes);
+        if (index < 0) {
+            return false;
+        }
+        int base = t.slot(index);
+        return t.buffer().getLong(base + FINGERPRINT_HIGH) == fingerprint.high()
+                && t.buffer().getLong(base + FINGERPRINT_LOW) == fingerprint.low()
+                && t.buffer().getLong(base + EXPIRES_AT) > now;
+    }
+
+    // Probes are bounded by the capacity so that an optimistic read racing a writer cannot loop forever
+    private static int find(Table t, long userId, byte[] sessionIdBytes) {
+        int index = t.home(userId);
+        for (int probes = 0; probes < t.capacity(); probes++, index = (index + 1) & t.mask()) {
+            long key = t.buffer().getLong(t.slot(index) + USER);
+            if (key == 0) {
+                return -1;
+            }
+            if (key == userId && sessionIdEquals(t, index, sessionIdBytes)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static int findExpired(Table t, long userId, long now) {
+        int index = t.home(userId);
+        for (int probes = 0; probes < t.capacity(); probes++, index = (index + 1) & t.mask()) {
+            long key = t.buffer().getLong(t.slot(index) + USER);
+            if (key == 0) {
+                return -1;
+            }
+            if (key == userId && t.buffer().getLong(t.slot(index) + EXPIRES_AT) <= now) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static int findOldest(Table t, long userId, int skip) {
+        int oldest = -1;
+        int index = t.home(userId);
+        for (int probes = 0; probes < t.capacity(); probes++, index = (index + 1) & t.mask()) {
+            long key = t.buffer().getLong(t.slot(index) + USER);
+            if (key == 0) {
+                break;
+            }
+            if (key == userId && index != skip && (oldest < 0
+                    || t.buffer().getLong(t.slot(index) + CREATED_AT) < t.buffer().getLong(t.slot(oldest) + CREATED_AT))) {
+                oldest = index;
+            }
+        }
+        return oldest;
+    }
+
+    private static int countSessions(Table t, long userId) {
+        int count = 0;
+        int index = t.home(userId);
+        for (int probes = 0; probes < t.capacity(); probes++, index = (index + 1) & t.mask()) {
+            long key = t.buffer().getLong(t.slot(index) + USER);
+            if (key == 0) {
+                break;
+            }
+            if (key == userId) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int countUsed(Table t) {
+        int used = 0;
+        for (int i = 0; i < t.capacity(); i++) {
+            if (t.buffer().getLong(t.slot(i) + USER) != 0) {
+                used++;
+            }
+        }
+        return used;
+    }
+
+    private void sweep(Table t, int from, int to, long now) {
+        // A delete pulls a later entry into the current slot, so the slot is checked again before moving on
+        int i = from;
+        while (i < to) {
+            int base = t.slot(i);
+            if (t.buffer().getLong(base + USER) != 0 && t.buffer().getLong(base + EXPIRES_AT) <= now) {
+                delete(t, i);
+            } else {
+                i++;
+            }
+        }
+        touch();
+    }
+
+    private static List<byte[]> collectLive(Table t, long now) {
+        List<byte[]> live = new ArrayList<>();
+        for (int i = 0; i < t.capacity(); i++) {
+            int base = t.slot(i);
+            if (t.buffer().getLong(base + USER) != 0 && t.buffer().getLong(base + EXPIRES_AT) > now) {
+                byte[] entry = new byte[SLOT_BYTES];
+                t.buffer().get(base, entry);
+                live.add(entry);
+            }
+            t.buffer().putLong(base + USER, 0);
+        }
+        return live;
+    }
+
+    private void reinsert(List<byte[]> entries, Table t) {
+        for (byte[] entry : entries) {
+            long userId = ByteBuffer.wrap(entry).getLong(USER);
+            int free = t.home(userId);
+            while (t.buffer().getLong(t.slot(free) + USER) != 0) {
+                free = (free + 1) & t.mask();
+            }
+            t.buffer().put(t.slot(free), entry);
+            size++;
+        }
+    }
+
+    // Backward-shift delete: walks the cluster after the hole and moves back every entry whose home slot
+    // does not lie between the hole and its current position
+    private void delete(Table t, int hole) {
+        int next = hole;
+        while (true) {
+            next = (next + 1) & t.mask();
+            long key = t.buffer().getLong(t.slot(next) + USER);
+            if (key == 0) {
+                break;
+            }
+            int home = t.home(key);
+            boolean staysPut = hole <= next
+                    ? hole < home && home <= next
+                    : hole < home || home <= next;
+            if (staysPut) {
+                continue;
+            }
+            copy(t, next, hole);
+            hole = next;
+        }
+        t.buffer().putLong(t.slot(hole) + USER, 0);
+        size--;
+    }
+
+    // The user id is written last, so a crash mid-write leaves an empty slot rather than a mix of two sessions
+    private static void write(Table t, int index, long userId, TokenFingerprint fingerprint, long expiresAt,
+                              long createdAt, byte[] sessionIdBytes) {
+        ByteBuffer buffer = t.buffer();
+        int base = t.slot(index);
+        buffer.putLong(base + USER, 0);
+        buffer.putLong(base + FINGERPRINT_HIGH, fingerprint.high());
+        buffer.putLong(base + FINGERPRINT_LOW, fingerprint.low());
+        buffer.putLong(base + EXPIRES_AT, expiresAt);
+        buffer.putLong(base + CREATED_AT, createdAt);
+        buffer.put(base + SESSION_ID_LENGTH, (byte) sessionIdBytes.length);
+        buffer.put(base + SESSION_ID, sessionIdBytes);
+        buffer.putLong(base + USER, userId);
+    }
+
+    private static void copy(Table t, int from, int to) {
+        ByteBuffer buffer = t.buffer();
+        int source = t.slot(from);
+        int target = t.slot(to);
+        buffer.putLong(target + USER, 0);
+        buffer.put(target + FINGERPRINT_HIGH, buffer, source + FINGERPRINT_HIGH, SLOT_BYTES - FINGERPRINT_HIGH);
+        buffer.putLong(target + USER, buffer.getLong(source + USER));
+    }
+
+    private static boolean sessionIdEquals(Table t, int index, byte[] sessionIdBytes) {
+        int base = t.slot(index);
+        if (t.buffer().get(base + SESSION_ID_LENGTH) != sessionIdBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < sessionIdBytes.length; i++) {
+            if (t.buffer().get(base + SESSION_ID + i) != sessionIdBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String sessionIdAt(Table t, int index) {
+        int base = t.slot(index);
+        byte[] sessionIdBytes = new byte[t.buffer().get(base + SESSION_ID_LENGTH)];
+        t.buffer().get(base + SESSION_ID, sessionIdBytes);
+        return new String(sessionIdBytes, StandardCharsets.US_ASCII);
+    }
+
+    private static void checkUserId(long userId) {
+        if (userId <= 0) {
+            throw new IllegalArgumentException("Session store needs a positive user id");
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.security.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+// Revoked tokens, used instead of the session store when token-denylist.enabled=true. Entries are a single token
+// (its jti), every token of a session, or every token of a user; the latter two apply to tokens issued up to the
+// revocation time. Each entry goes into the partition covering the time it can be forgotten, i.e. when every
+// token it matches is past exp, and whole partitions are dropped after that. A Bloom filter per partition
+// answers most lookups, which are for tokens that were never revoked, without touching the exact map.
+@Slf4j
+@Component
+public class TokenDenylist {
+    @Value("${token.access-token-expiration}")
+    private long ACCESS_TOKEN_EXPIRATION;
+
+    @Value("${token-denylist.partition-seconds:300}")
+    private long PARTITION_SECONDS;
+
+    // Sizing of each partition's Bloom filter; more entries only raise its false positive rate
+    @Value("${token-denylist.expected-insertions:100000}")
+    private int EXPECTED_INSERTIONS;
+
+    @Value("${token-denylist.false-positive-rate:0.01}")
+    private double FALSE_POSITIVE_RATE;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final ConcurrentSkipListMap<Long, Partition> partitions = new ConcurrentSkipListMap<>();
+    private long partitionMillis;
+    private Counter falsePositives;
+
+    private record Partition(BloomFilter<CharSequence> filter, Map<String, Long> revokedAt) {
+    }
+
+    @PostConstruct
+    public void init() {
+        partitionMillis = TimeUnit.SECONDS.toMillis(PARTITION_SECONDS);
+        Gauge.builder("token-denylist.partitions", partitions, Map::size).register(meterRegistry);
+        Gauge.builder("token-denylist.entries", this, TokenDenylist::size).register(meterRegistry);
+        falsePositives = Counter.builder("token-denylist.bloom.false-positives").register(meterRegistry);
+    }
+
+    public void revokeToken(String tokenId, long expiresAt) {
+        add("j:" + tokenId, Long.MAX_VALUE, expiresAt);
+    }
+
+    public void revokeSession(long userId, String sessionId, long revokedAt) {
+        add("s:" + userId + ":" + sessionId, revokedAt, revokedAt + ACCESS_TOKEN_EXPIRATION);
+    }
+
+    public void revokeUser(long userId, long revokedAt) {
+        add("u:" + userId, revokedAt, revokedAt + ACCESS_TOKEN_EXPIRATION);
+    }
+
+    // A session or user revocation covers every token issued before it. iat has second precision, so a token issued
+    // in the same second as the revocation counts as issued before it: a login after a logout gets a new sid (and
+    // jti) and is not affected, but a login on the same device within that second is, and has to refresh.
+    public boolean isRevoked(long userId, String sessionId, String tokenId, long issuedAt, long now) {
+        Map<Long, Partition> live = partitions.tailMap(now / partitionMillis, true);
+        if (live.isEmpty()) {
+            return false;
+        }
+        return (tokenId != null && isRevoked(live, "j:" + tokenId, issuedAt))
+                || isRevoked(live, "s:" + userId + ":" + sessionId, issuedAt)
+                || isRevoked(live, "u:" + userId, issuedAt);
+    }
+
+    @Scheduled(fixedDelayString = "${token-denylist.sweep-interval-ms:60000}")
+    public void dropExpiredPartitions() {
+        Map<Long, Partition> expired = partitions.headMap(System.currentTimeMillis() / partitionMillis);
+        if (!expired.isEmpty()) {
+            log.debug("Dropping {} token denylist partitions", expired.size());
+            expired.clear();
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Partition partition : partitions.values()) {
+            size += partition.revokedAt().size();
+        }
+        return size;
+    }
+
+    private void add(String key, long revokedAt, long forgetAfter) {
+        if (forgetAfter <= System.currentTimeMillis()) {
+            return;
+        }
+        Partition partition = partitions.computeIfAbsent(forgetAfter / partitionMillis, index -> new Partition(
+                BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), EXPECTED_INSERTIONS, FALSE_POSITIVE_RATE),
+                new ConcurrentHashMap<>()));
+        // The exact entry goes in first, so a lookup that passes the filter always finds it
+        partition.revokedAt().merge(key, revokedAt, Math::max);
+        partition.filter().put(key);
+    }
+
+    private boolean isRevoked(Map<Long, Partition> live, String key, long issuedAt) {
+        for (Partition partition : live.values()) {
+            if (!partition.filter().mightContain(key)) {
+                continue;
+            }
+            Long revokedAt = partition.revokedAt().get(key);
+            if (revokedAt == null) {
+                falsePositives.increment();
+            } else if (issuedAt < revokedAt) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.security.cache;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.example.security.model.User;
+import com.example.security.model.UserSnapshot;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+// Read-through cache in front of the user lookup done by UserDetailsService.
+// Anything that changes a user must call invalidate(user); the other nodes drop the user through the ClusterEventBus.
+@Slf4j
+@Component
+public class UserDetailsCache {
+    @Value("${user-cache.enabled:true}")
+    private boolean ENABLED;
+
+    @Value("${user-cache.maximum-size:10000}")
+    private long MAXIMUM_SIZE;
+
+    @Value("${user-cache.ttl-seconds:300}")
+    private long TTL_SECONDS;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ClusterEventBus clusterEventBus;
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private Cache<String, UserSnapshot> users;
+
+    @PostConstruct
+    public void init() {
+        if (!ENABLED) {
+            log.info("User details cache is disabled");
+            return;
+        }
+        users = Caffeine.newBuilder()
+                .maximumSize(MAXIMUM_SIZE)
+                .expireAfterWrite(Duration.ofSeconds(TTL_SECONDS))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, users, "users.details");
+        clusterEventBus.subscribe(this::onEvent);
+    }
+
+    public UserSnapshot get(String email, Function<String, UserSnapshot> loader) {
+        if (users == null) {
+            return loader.apply(email);
+        }
+        return users.get(email, loader);
+    }
+
+    public void invalidate(User user) {
+        String email = user.getEmail();
+        Integer userId = user.getId();
+        drop(email);
+        // A concurrent request may reload the old row before our transaction commits, here or on another node;
+        // drop it again and tell the other nodes after commit
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    drop(email);
+                    publish(userId);
+                }
+            });
+        } else {
+            publish(userId);
+        }
+        log.debug("Invalidated cached user details for {}", email);
+    }
+
+    public void invalidateAll() {
+        if (users != null) {
+            users.invalidateAll();
+        }
+    }
+
+    private void drop(String email) {
+        if (users != null && email != null) {
+            users.invalidate(email);
+        }
+    }
+
+    // A user without an id has never been saved, so no node can have cached it
+    private void publish(Integer userId) {
+        if (userId != null) {
+            clusterEventBus.publish(ClusterEvent.userDetailsChanged(nodeId, userId, System.currentTimeMillis()));
+        }
+    }
+
+    // Entries are keyed by email, which does not fit in an event, so the user is found by id
+    private void onEvent(ClusterEvent event) {
+        if (event.type() != ClusterEvent.Type.USER_DETAILS_CHANGED || nodeId.equals(event.origin())) {
+            return;
+        }
+        users.asMap().values().removeIf(user -> user.getId() != null && user.getId() == event.userId());
+    }
+}
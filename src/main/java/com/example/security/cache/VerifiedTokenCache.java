@@ -0,0 +1,104 @@
+package com.example.security.cache;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.example.security.jwt.VerifiedToken;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+// Remembers tokens whose signature was already checked, so a repeated bearer token costs one SHA-256
+// instead of HMAC + JSON parsing. Each entry is dropped at the token's own exp.
+@Slf4j
+@Component
+public class VerifiedTokenCache {
+    @Value("${jwt.verified-cache.enabled:true}")
+    private boolean ENABLED;
+
+    @Value("${jwt.verified-cache.maximum-size:10000}")
+    private long MAXIMUM_SIZE;
+
+    @Value("${jwt.verified-cache.record-stats:true}")
+    private boolean RECORD_STATS;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Cache<TokenFingerprint, VerifiedToken> verifiedTokens;
+
+    @PostConstruct
+    public void init() {
+        if (!ENABLED) {
+            log.info("Verified token cache is disabled");
+            return;
+        }
+        Caffeine<TokenFingerprint, VerifiedToken> builder = Caffeine.newBuilder()
+                .maximumSize(MAXIMUM_SIZE)
+                .expireAfter(new Expiry<TokenFingerprint, VerifiedToken>() {
+                    @Override
+                    public long expireAfterCreate(TokenFingerprint key, VerifiedToken token, long currentTime) {
+                        return untilExpiry(token);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(TokenFingerprint key, VerifiedToken token, long currentTime, long currentDuration) {
+                        return untilExpiry(token);
+                    }
+
+                    @Override
+                    public long expireAfterRead(TokenFingerprint key, VerifiedToken token, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                });
+        if (RECORD_STATS) {
+            builder.recordStats();
+        }
+        verifiedTokens = builder.build();
+        if (RECORD_STATS) {
+            CaffeineCacheMetrics.monitor(meterRegistry, verifiedTokens, "jwt.verified-tokens");
+        }
+    }
+
+    public VerifiedToken get(String token, Function<String, VerifiedToken> verifier) {
+        if (verifiedTokens == null) {
+            return verifier.apply(token);
+        }
+        TokenFingerprint key = TokenFingerprint.of(token);
+        VerifiedToken cached = verifiedTokens.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        VerifiedToken verified = verifier.apply(token);
+        if (verified.getExpiresAt() != null) {
+            verifiedTokens.put(key, verified);
+        }
+        return verified;
+    }
+
+    public void invalidate(String token) {
+        if (verifiedTokens != null) {
+            verifiedTokens.invalidate(TokenFingerprint.of(token));
+        }
+    }
+
+    public void invalidateAll() {
+        if (verifiedTokens != null) {
+            verifiedTokens.invalidateAll();
+        }
+    }
+
+    private static long untilExpiry(VerifiedToken token) {
+        return Math.max(0, Duration.between(Instant.now(), token.getExpiresAt()).toNanos());
+    }
+}
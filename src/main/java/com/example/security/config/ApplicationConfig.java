@@ -1,16 +1,28 @@
 package com.example.security.config;
 
+import com.example.security.cache.UserDetailsCache;
+import com.example.security.crypto.AdaptivePasswordEncoder;
+import com.example.security.crypto.BoundedPasswordEncoder;
+import com.example.security.crypto.PasswordHashCalibrator;
+import com.example.security.crypto.PasswordHashSettings;
+import com.example.security.http.ProviderHttpClient;
+import com.example.security.http.ProviderHttpSettings;
+import com.example.security.model.UserSnapshot;
 import com.example.security.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
 import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.web.client.RestTemplate;
 
@@ -18,11 +30,54 @@ import org.springframework.web.client.RestTemplate;
 public class ApplicationConfig {
     @Autowired
     private UserRepository userRepository;
+    @Autowired
+    private UserDetailsCache userDetailsCache;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private Environment environment;
+
+    // 0 = one thread per CPU; hashing is CPU-bound, so more threads only add queueing inside the OS
+    @Value("${password-hashing.threads:0}")
+    private int PASSWORD_HASHING_THREADS;
+
+    @Value("${password-hashing.queue-capacity:32}")
+    private int PASSWORD_HASHING_QUEUE_CAPACITY;
+
+    @Value("${password-hashing.timeout-ms:5000}")
+    private long PASSWORD_HASHING_TIMEOUT_MS;
+
+    @Value("${password-hashing.retry-after-seconds:2}")
+    private long PASSWORD_HASHING_RETRY_AFTER_SECONDS;
+
+    // Algorithm for new hashes: bcrypt, pbkdf2 or argon2
+    @Value("${password-hashing.algorithm:bcrypt}")
+    private String PASSWORD_HASHING_ALGORITHM;
+
+    // Raise the cost until one hash takes this long on this machine; 0 keeps the configured cost
+    @Value("${password-hashing.target-ms:0}")
+    private long PASSWORD_HASHING_TARGET_MS;
+
+    @Value("${password-hashing.bcrypt.strength:10}")
+    private int BCRYPT_STRENGTH;
+
+    @Value("${password-hashing.pbkdf2.iterations:310000}")
+    private int PBKDF2_ITERATIONS;
+
+    @Value("${password-hashing.argon2.memory-kb:19456}")
+    private int ARGON2_MEMORY_KB;
+
+    @Value("${password-hashing.argon2.iterations:2}")
+    private int ARGON2_ITERATIONS;
+
+    @Value("${password-hashing.argon2.parallelism:1}")
+    private int ARGON2_PARALLELISM;
 
     @Bean
     public UserDetailsService userDetailsService() {
-        return username -> userRepository.findByEmail(username)
-                .orElseThrow(() -> new UsernameNotFoundException("User not found"));
+        return username -> userDetailsCache.get(username, email -> userRepository.findByEmail(email)
+                .map(UserSnapshot::from)
+                .orElseThrow(() -> new UsernameNotFoundException("User not found")));
     }
 
     @Bean
@@ -30,10 +85,24 @@ public class ApplicationConfig {
         DaoAuthenticationProvider authProvider = new DaoAuthenticationProvider();
         authProvider.setUserDetailsService(userDetailsService());
         authProvider.setPasswordEncoder(passwordEncoder());
+        // Rehash with the current algorithm and cost after a successful login
+        authProvider.setUserDetailsPasswordService(userDetailsPasswordService());
 
         return authProvider;
     }
 
+    @Bean
+    public UserDetailsPasswordService userDetailsPasswordService() {
+        return (userDetails, newPassword) -> userRepository.findByEmail(userDetails.getUsername())
+                .map(user -> {
+                    user.setPassword(newPassword);
+                    userRepository.save(user);
+                    userDetailsCache.invalidate(user);
+                    return (UserDetails) UserSnapshot.from(user);
+                })
+                .orElse(userDetails);
+    }
+
     @Bean
     public AuthenticationManager authenticationManager(AuthenticationConfiguration config) throws Exception {
         return config.getAuthenticationManager();
@@ -41,11 +110,56 @@ public class ApplicationConfig {
 
     @Bean
     public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+        PasswordHashSettings settings = PasswordHashCalibrator.calibrate(PasswordHashSettings.builder()
+                .algorithm(PASSWORD_HASHING_ALGORITHM)
+                .bcryptStrength(BCRYPT_STRENGTH)
+                .pbkdf2Iterations(PBKDF2_ITERATIONS)
+                .argon2MemoryKb(ARGON2_MEMORY_KB)
+                .argon2Iterations(ARGON2_ITERATIONS)
+                .argon2Parallelism(ARGON2_PARALLELISM)
+                .build(), PASSWORD_HASHING_TARGET_MS);
+        return new BoundedPasswordEncoder(new AdaptivePasswordEncoder(settings), PASSWORD_HASHING_THREADS,
+                PASSWORD_HASHING_QUEUE_CAPACITY, PASSWORD_HASHING_TIMEOUT_MS, PASSWORD_HASHING_RETRY_AFTER_SECONDS,
+                meterRegistry);
+    }
+
+    @Bean
+    public ProviderHttpClient googleHttpClient() {
+        return new ProviderHttpClient("google", providerHttpSettings("google"), meterRegistry);
     }
-    
+
+    @Bean
+    public ProviderHttpClient facebookHttpClient() {
+        return new ProviderHttpClient("facebook", providerHttpSettings("facebook"), meterRegistry);
+    }
+
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public RestTemplate googleRestTemplate() {
+        return googleHttpClient().restTemplate();
+    }
+
+    @Bean
+    public RestTemplate facebookRestTemplate() {
+        return facebookHttpClient().restTemplate();
+    }
+
+    private ProviderHttpSettings providerHttpSettings(String provider) {
+        return ProviderHttpSettings.builder()
+                .maxConnections((int) providerHttpSetting(provider, "max-connections", 20))
+                .connectTimeoutMs(providerHttpSetting(provider, "connect-timeout-ms", 1000))
+                .responseTimeoutMs(providerHttpSetting(provider, "response-timeout-ms", 3000))
+                .connectionRequestTimeoutMs(providerHttpSetting(provider, "connection-request-timeout-ms", 500))
+                .keepAliveSeconds(providerHttpSetting(provider, "keep-alive-seconds", 30))
+                .maxConcurrentCalls((int) providerHttpSetting(provider, "max-concurrent-calls", 20))
+                .bulkheadWaitMs(providerHttpSetting(provider, "bulkhead-wait-ms", 100))
+                .failureThreshold((int) providerHttpSetting(provider, "failure-threshold", 5))
+                .openSeconds(providerHttpSetting(provider, "open-seconds", 30))
+                .build();
+    }
+
+    // identity-provider.<provider>.<key>, falling back to identity-provider.<key> for every provider
+    private long providerHttpSetting(String provider, String key, long defaultValue) {
+        Long shared = environment.getProperty("identity-provider." + key, Long.class, defaultValue);
+        return environment.getProperty("identity-provider." + provider + "." + key, Long.class, shared);
     }
 }
@@ -1,5 +1,6 @@
 package com.example.security.config;
 
+import com.example.security.jwt.VerifiedToken;
 import com.example.security.service.JwtService;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -65,16 +66,24 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
                 return;
             }
 
-            userEmail = jwtService.extractUsername(jwt);
+            VerifiedToken token = jwtService.verify(jwt);
+            userEmail = token.getSubject();
 
-            if (accessTokenCache.get(userEmail) == null) {
+            if (!jwtService.isAccessToken(token) || !accessTokenCache.isActive(token, jwt)) {
                 sendErrorResponse(response, "Token không hợp lệ hoặc đã hết hạn", HttpStatus.UNAUTHORIZED);
                 return;
             }
 
             if (userEmail != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-                UserDetails userDetails = this.userDetailsService.loadUserByUsername(userEmail);
-                if (jwtService.isTokenValid(jwt, userDetails)) {
+                // Stateless mode: trust uid/role from the verified token instead of querying the user
+                UserDetails userDetails = null;
+                if (jwtService.isStatelessPrincipalEnabled()) {
+                    userDetails = jwtService.toPrincipal(token);
+                }
+                if (userDetails == null) {
+                    userDetails = this.userDetailsService.loadUserByUsername(userEmail);
+                }
+                if (jwtService.isTokenValid(token, userDetails)) {
                     UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
                             userDetails,
                             null,
@@ -65,9 +65,19 @@ public class AuthenticationController {
 
     @PostMapping("/logout")
     public ResponseEntity<String> logout(
-            @RequestBody RefreshTokenRequest request
+            @RequestBody RefreshTokenRequest request,
+            @RequestHeader(value = "Authorization", required = false) String authHeader
     ) {
-        service.logout(request.getRefreshToken());
+        String accessToken = authHeader != null && authHeader.startsWith("Bearer ") ? authHeader.substring(7) : null;
+        service.logout(request.getRefreshToken(), accessToken);
         return ResponseEntity.ok("Logged out successfully");
     }
+
+    @PostMapping("/logout-all")
+    public ResponseEntity<String> logoutAll(
+            @RequestBody RefreshTokenRequest request
+    ) {
+        service.logoutAll(request.getRefreshToken());
+        return ResponseEntity.ok("Logged out from all sessions");
+    }
 }
@@ -0,0 +1,42 @@
+package com.example.security.controller;
+
+import com.example.security.service.JwksService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.concurrent.TimeUnit;
+
+@RestController
+public class JwksController {
+    @Autowired
+    private JwksService jwksService;
+
+    @Value("${jwt.jwks.max-age-seconds:300}")
+    private long MAX_AGE_SECONDS;
+
+    @GetMapping(value = "/.well-known/jwks.json", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<String> jwks(
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch
+    ) {
+        JwksService.JwkSet keySet = jwksService.currentKeySet();
+        CacheControl cacheControl = CacheControl.maxAge(MAX_AGE_SECONDS, TimeUnit.SECONDS).cachePublic();
+
+        if (ifNoneMatch != null && ifNoneMatch.contains(keySet.etag())) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(keySet.etag())
+                    .cacheControl(cacheControl)
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .eTag(keySet.etag())
+                .cacheControl(cacheControl)
+                .body(keySet.json());
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.security.controller;
+
+import com.example.security.jwt.JwtKeyRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/v1/admin/jwt-keys")
+public class SigningKeyController {
+    @Autowired
+    private JwtKeyRegistry keyRegistry;
+
+    @GetMapping
+    public ResponseEntity<List<String>> activeKeyIds() {
+        return ResponseEntity.ok(List.copyOf(keyRegistry.activeKeys().keySet()));
+    }
+
+    @PostMapping("/{kid}/activate")
+    public ResponseEntity<String> activate(@PathVariable String kid) {
+        keyRegistry.activate(kid);
+        return ResponseEntity.ok("Signing key activated");
+    }
+
+    @PostMapping("/{kid}/retire")
+    public ResponseEntity<String> retire(@PathVariable String kid) {
+        keyRegistry.retire(kid);
+        return ResponseEntity.ok("Signing key retired");
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.security.crypto;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
+
+// Delegating encoder in the style of Spring's DelegatingPasswordEncoder: new hashes are prefixed with the
+// algorithm id, e.g. {bcrypt}$2a$12$..., and verification picks the encoder from the prefix. Hashes without a
+// prefix are the BCrypt hashes stored before this encoder existed.
+// BCrypt and Argon2 keep their cost inside the hash; PBKDF2 does not, so its id carries the iteration count
+// ({pbkdf2@310000}) and any iteration count ever used can still be verified.
+public class AdaptivePasswordEncoder implements PasswordEncoder {
+    public static final String BCRYPT = "bcrypt";
+    public static final String PBKDF2 = "pbkdf2";
+    public static final String ARGON2 = "argon2";
+
+    private static final int SALT_LENGTH = 16;
+    private static final int ARGON2_HASH_LENGTH = 32;
+
+    private final String encodingId;
+    private final PasswordEncoder current;
+    private final BCryptPasswordEncoder bcrypt;
+    private final Argon2PasswordEncoder argon2;
+    private final int pbkdf2Iterations;
+    private final Map<Integer, Pbkdf2PasswordEncoder> pbkdf2ByIterations = new ConcurrentHashMap<>();
+
+    public AdaptivePasswordEncoder(PasswordHashSettings settings) {
+        bcrypt = new BCryptPasswordEncoder(settings.getBcryptStrength());
+        argon2 = new Argon2PasswordEncoder(SALT_LENGTH, ARGON2_HASH_LENGTH, settings.getArgon2Parallelism(),
+                settings.getArgon2MemoryKb(), settings.getArgon2Iterations());
+        pbkdf2Iterations = settings.getPbkdf2Iterations();
+
+        switch (settings.getAlgorithm().toLowerCase()) {
+            case BCRYPT -> {
+                encodingId = BCRYPT;
+                current = bcrypt;
+            }
+            case PBKDF2 -> {
+                encodingId = PBKDF2 + "@" + pbkdf2Iterations;
+                current = pbkdf2(pbkdf2Iterations);
+            }
+            case ARGON2 -> {
+                encodingId = ARGON2;
+                current = argon2;
+            }
+            default -> throw new IllegalArgumentException("Unsupported password hash algorithm: " + settings.getAlgorithm());
+        }
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return "{" + encodingId + "}" + current.encode(rawPassword);
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        if (encodedPassword == null || encodedPassword.isEmpty()) {
+            return false;
+        }
+        String id = idOf(encodedPassword);
+        if (id == null) {
+            return bcrypt.matches(rawPassword, encodedPassword);
+        }
+        PasswordEncoder encoder = encoderFor(id);
+        return encoder != null && encoder.matches(rawPassword, encodedPassword.substring(id.length() + 2));
+    }
+
+    // True for legacy hashes, hashes of another algorithm, and hashes weaker than the current settings
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        if (encodedPassword == null || encodedPassword.isEmpty()) {
+            return false;
+        }
+        String id = idOf(encodedPassword);
+        if (id == null) {
+            return true;
+        }
+        if (!id.equals(encodingId) && !id.startsWith(PBKDF2 + "@")) {
+            return true;
+        }
+        String hash = encodedPassword.substring(id.length() + 2);
+        return switch (id) {
+            case BCRYPT -> bcrypt.upgradeEncoding(hash);
+            case ARGON2 -> argon2.upgradeEncoding(hash);
+            // Only fewer iterations than ours counts as weaker, so nodes calibrated to different targets do not keep
+            // rehashing each other's hashes, and a slower node never lowers a stronger one
+            default -> !encodingId.startsWith(PBKDF2 + "@") || iterationsOf(id) < pbkdf2Iterations;
+        };
+    }
+
+    public String getEncodingId() {
+        return encodingId;
+    }
+
+    private PasswordEncoder encoderFor(String id) {
+        if (id.equals(BCRYPT)) {
+            return bcrypt;
+        }
+        if (id.equals(ARGON2)) {
+            return argon2;
+        }
+        if (id.startsWith(PBKDF2 + "@")) {
+            int iterations = iterationsOf(id);
+            return iterations > 0 ? pbkdf2(iterations) : null;
+        }
+        return null;
+    }
+
+    // Iteration count of a pbkdf2@N id, or -1 if it is malformed
+    private static int iterationsOf(String id) {
+        try {
+            return Integer.parseInt(id.substring(PBKDF2.length() + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Pbkdf2PasswordEncoder pbkdf2(int iterations) {
+        return pbkdf2ByIterations.computeIfAbsent(iterations, n -> new Pbkdf2PasswordEncoder("", SALT_LENGTH, n,
+                Pbkdf2PasswordEncoder.SecretKeyFactoryAlgorithm.PBKDF2WithHmacSHA256));
+    }
+
+    private static String idOf(String encodedPassword) {
+        if (!encodedPassword.startsWith("{")) {
+            return null;
+        }
+        int end = encodedPassword.indexOf('}');
+        return end > 1 ? encodedPassword.substring(1, end) : null;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.security.crypto;
+
+import java.util.Arrays;
+
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import lombok.extern.slf4j.Slf4j;
+
+// Raises the cost of the configured algorithm until one hash takes about the target time on this machine. The
+// configured cost is a floor: calibration never lowers it.
+@Slf4j
+public final class PasswordHashCalibrator {
+    private static final String SAMPLE_PASSWORD = "calibration-sample-Pa55word!";
+    private static final int SAMPLES = 3;
+    private static final int MAX_BCRYPT_STRENGTH = 20;
+
+    private PasswordHashCalibrator() {
+    }
+
+    public static PasswordHashSettings calibrate(PasswordHashSettings settings, long targetMillis) {
+        if (targetMillis <= 0) {
+            return settings;
+        }
+        double measured = measure(settings);
+        double ratio = targetMillis / measured;
+        PasswordHashSettings calibrated = switch (settings.getAlgorithm().toLowerCase()) {
+            // Each BCrypt strength step doubles the work
+            case AdaptivePasswordEncoder.BCRYPT -> settings.toBuilder()
+                    .bcryptStrength(Math.min(MAX_BCRYPT_STRENGTH,
+                            settings.getBcryptStrength() + Math.max(0, (int) Math.floor(Math.log(ratio) / Math.log(2)))))
+                    .build();
+            case AdaptivePasswordEncoder.PBKDF2 -> settings.toBuilder()
+                    .pbkdf2Iterations(Math.max(settings.getPbkdf2Iterations(), (int) (settings.getPbkdf2Iterations() * ratio)))
+                    .build();
+            // Memory stays as configured; the pass count is what scales linearly
+            case AdaptivePasswordEncoder.ARGON2 -> settings.toBuilder()
+                    .argon2Iterations(Math.max(settings.getArgon2Iterations(), (int) (settings.getArgon2Iterations() * ratio)))
+                    .build();
+            default -> settings;
+        };
+        log.info("Password hash calibrated to {} ms: {} (was {} ms with {})", targetMillis, calibrated,
+                Math.round(measured), settings);
+        return calibrated;
+    }
+
+    // Median of a few hashes, after one warm-up hash
+    private static double measure(PasswordHashSettings settings) {
+        PasswordEncoder encoder = new AdaptivePasswordEncoder(settings);
+        encoder.encode(SAMPLE_PASSWORD);
+        long[] samples = new long[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            long started = System.nanoTime();
+            encoder.encode(SAMPLE_PASSWORD);
+            samples[i] = System.nanoTime() - started;
+        }
+        Arrays.sort(samples);
+        return Math.max(1, samples[SAMPLES / 2] / 1_000_000.0);
+    }
+}
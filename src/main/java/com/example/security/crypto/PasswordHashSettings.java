@@ -0,0 +1,17 @@
+package com.example.security.crypto;
+
+import lombok.Builder;
+import lombok.Value;
+
+// Algorithm used for new hashes and the cost of each algorithm. Hashes made with another algorithm or a lower
+// cost still verify, and are rehashed with these settings on the next successful login.
+@Value
+@Builder(toBuilder = true)
+public class PasswordHashSettings {
+    String algorithm;
+    int bcryptStrength;
+    int pbkdf2Iterations;
+    int argon2MemoryKb;
+    int argon2Iterations;
+    int argon2Parallelism;
+}
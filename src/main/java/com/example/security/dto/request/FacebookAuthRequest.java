@@ -11,5 +11,6 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 public class FacebookAuthRequest {
     private String accessToken; // Facebook access token
+    private String deviceId; // Optional, one session per device when provided
 }
 
@@ -11,4 +11,5 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 public class GoogleAuthRequest {
     private String idToken; // Google ID token
+    private String deviceId; // Optional, one session per device when provided
 } 
\ No newline at end of file
@@ -15,4 +15,5 @@ public class RegisterRequest {
     private String email;
     private String password;
     private String role;
+    private String deviceId; // Optional, one session per device when provided
 }
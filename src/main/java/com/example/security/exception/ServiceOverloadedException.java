@@ -0,0 +1,14 @@
+package com.example.security.exception;
+
+import lombok.Getter;
+
+// Thrown when a bounded resource is saturated; GlobalExceptionHandler turns it into 503 with Retry-After
+@Getter
+public class ServiceOverloadedException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    public ServiceOverloadedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
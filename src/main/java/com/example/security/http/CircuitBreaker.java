@@ -0,0 +1,57 @@
+package com.example.security.http;
+
+// Stops calling a provider after failureThreshold consecutive failures. While open every call fails at once;
+// after openMillis one trial call is let through, and its outcome closes the circuit or opens it again.
+final class CircuitBreaker {
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+    }
+
+    // Whether a call may go out now; in HALF_OPEN only the one trial call gets true
+    synchronized boolean tryAcquire(long now) {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN && now - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    synchronized void onFailure(long now) {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = now;
+            failures = 0;
+        }
+    }
+
+    synchronized long retryAfterMillis(long now) {
+        return state == State.CLOSED ? 0 : Math.max(0, openedAt + openMillis - now);
+    }
+
+    synchronized State state() {
+        return state;
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.security.http;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import com.example.security.exception.ServiceOverloadedException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import lombok.extern.slf4j.Slf4j;
+
+// Outbound HTTP to one identity provider. Connections come from a pool of its own and every call has connect,
+// pool-wait and response timeouts, so a slow provider ties up at most maxConcurrentCalls request threads for at
+// most those timeouts. Past that, or while the circuit breaker is open after repeated failures, calls fail at
+// once with ServiceOverloadedException (503 with Retry-After) instead of queueing behind a provider that is down.
+@Slf4j
+public class ProviderHttpClient implements AutoCloseable {
+    private final String provider;
+    private final ProviderHttpSettings settings;
+    private final CloseableHttpClient httpClient;
+    private final RestTemplate restTemplate;
+    private final Semaphore bulkhead;
+    private final CircuitBreaker circuitBreaker;
+    private final MeterRegistry meterRegistry;
+    private final Counter bulkheadRejections;
+    private final Counter circuitRejections;
+
+    public ProviderHttpClient(String provider, ProviderHttpSettings settings, MeterRegistry meterRegistry) {
+        this.provider = provider;
+        this.settings = settings;
+        this.meterRegistry = meterRegistry;
+        this.bulkhead = new Semaphore(settings.getMaxConcurrentCalls());
+        this.circuitBreaker = new CircuitBreaker(settings.getFailureThreshold(),
+                TimeUnit.SECONDS.toMillis(settings.getOpenSeconds()));
+
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(settings.getMaxConnections())
+                .setMaxConnPerRoute(settings.getMaxConnections())
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(settings.getConnectTimeoutMs(), TimeUnit.MILLISECONDS)
+                        .setSocketTimeout((int) settings.getResponseTimeoutMs(), TimeUnit.MILLISECONDS)
+                        .build())
+                .build();
+        httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(settings.getConnectionRequestTimeoutMs(), TimeUnit.MILLISECONDS)
+                        .setResponseTimeout(settings.getResponseTimeoutMs(), TimeUnit.MILLISECONDS)
+                        // Used when the provider does not say how long it keeps the connection open
+                        .setDefaultKeepAlive(settings.getKeepAliveSeconds(), TimeUnit.SECONDS)
+                        .build())
+                .evictIdleConnections(TimeValue.ofSeconds(settings.getKeepAliveSeconds()))
+                .evictExpiredConnections()
+                // A retry would run past the caller's deadline; callers decide whether to try again
+                .disableAutomaticRetries()
+                .build();
+
+        restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(httpClient));
+        restTemplate.getInterceptors().add(this::intercept);
+
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, provider).bindTo(meterRegistry);
+        bulkheadRejections = Counter.builder("identity-provider.rejected")
+                .tags("provider", provider, "reason", "bulkhead").register(meterRegistry);
+        circuitRejections = Counter.builder("identity-provider.rejected")
+                .tags("provider", provider, "reason", "circuit-open").register(meterRegistry);
+        // 0 closed, 1 open, 2 half-open
+        Gauge.builder("identity-provider.circuit.state", circuitBreaker, breaker -> breaker.state().ordinal())
+                .tag("provider", provider).register(meterRegistry);
+        log.info("HTTP client for {}: {} connections, {} concurrent calls, response timeout {} ms", provider,
+                settings.getMaxConnections(), settings.getMaxConcurrentCalls(), settings.getResponseTimeoutMs());
+    }
+
+    public RestTemplate restTemplate() {
+        return restTemplate;
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    // The slot is held until the response headers arrive; reading the (small) body is bounded by the socket timeout
+    private ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+            throws IOException {
+        if (!acquireSlot()) {
+            bulkheadRejections.increment();
+            throw overloaded(settings.getBulkheadWaitMs());
+        }
+        try {
+            long now = System.currentTimeMillis();
+            if (!circuitBreaker.tryAcquire(now)) {
+                circuitRejections.increment();
+                throw overloaded(circuitBreaker.retryAfterMillis(now));
+            }
+            long started = System.nanoTime();
+            String outcome = "io-error";
+            try {
+                ClientHttpResponse response = execution.execute(request, body);
+                HttpStatusCode status = response.getStatusCode();
+                if (status.is5xxServerError()) {
+                    outcome = "server-error";
+                    circuitBreaker.onFailure(System.currentTimeMillis());
+                } else {
+                    // A 4xx is the provider rejecting our input, not the provider failing
+                    outcome = status.is4xxClientError() ? "client-error" : "success";
+                    circuitBreaker.onSuccess();
+                }
+                return response;
+            } catch (IOException | RuntimeException e) {
+                circuitBreaker.onFailure(System.currentTimeMillis());
+                throw e;
+            } finally {
+                Timer.builder("identity-provider.requests")
+                        .tags("provider", provider, "outcome", outcome)
+                        .register(meterRegistry)
+                        .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    private boolean acquireSlot() {
+        try {
+            return bulkhead.tryAcquire(settings.getBulkheadWaitMs(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private ServiceOverloadedException overloaded(long retryAfterMillis) {
+        long retryAfterSeconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(retryAfterMillis + 999));
+        return new ServiceOverloadedException("Hệ thống đang quá tải. Vui lòng thử lại sau", retryAfterSeconds);
+    }
+}
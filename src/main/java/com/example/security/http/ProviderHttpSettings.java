@@ -0,0 +1,22 @@
+package com.example.security.http;
+
+import lombok.Builder;
+import lombok.Value;
+
+// Limits for the calls to one identity provider; each provider gets its own pool, bulkhead and circuit breaker
+@Value
+@Builder(toBuilder = true)
+public class ProviderHttpSettings {
+    int maxConnections;
+    long connectTimeoutMs;
+    long responseTimeoutMs;
+    // Wait for a pooled connection
+    long connectionRequestTimeoutMs;
+    long keepAliveSeconds;
+    // Calls in flight at once, and how long a caller waits for a slot
+    int maxConcurrentCalls;
+    long bulkheadWaitMs;
+    // Consecutive failures (IO errors or 5xx) that open the circuit, and how long it stays open
+    int failureThreshold;
+    long openSeconds;
+}
@@ -0,0 +1,145 @@
+package com.example.security.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.client.RestTemplate;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+
+// google-http-client transport that sends its GET requests through a ProviderHttpClient, so Google's own client
+// classes (GooglePublicKeysManager) get the provider's pool, timeouts, bulkhead and circuit breaker instead of a
+// bare HttpURLConnection. The timeouts set on the google-http-client request are ignored in favour of the pool's.
+public class ProviderHttpTransport extends HttpTransport {
+    private final RestTemplate restTemplate;
+
+    public ProviderHttpTransport(ProviderHttpClient client) {
+        this.restTemplate = client.restTemplate();
+    }
+
+    @Override
+    public boolean supportsMethod(String method) {
+        return HttpMethod.GET.name().equals(method);
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) {
+        if (!supportsMethod(method)) {
+            throw new IllegalArgumentException("Unsupported HTTP method: " + method);
+        }
+        return new Request(url);
+    }
+
+    private class Request extends LowLevelHttpRequest {
+        private final String url;
+        private final HttpHeaders headers = new HttpHeaders();
+
+        Request(String url) {
+            this.url = url;
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            // The pooled client negotiates and decodes compression itself
+            if (!HttpHeaders.ACCEPT_ENCODING.equalsIgnoreCase(name)) {
+                headers.add(name, value);
+            }
+        }
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+            try {
+                ResponseEntity<byte[]> response = restTemplate.exchange(URI.create(url), HttpMethod.GET,
+                        new HttpEntity<>(headers), byte[].class);
+                return new Response(response.getStatusCode(), response.getHeaders(), response.getBody());
+            } catch (RestClientResponseException e) {
+                // google-http-client decides itself what an error status means
+                return new Response(e.getStatusCode(), e.getResponseHeaders(), e.getResponseBodyAsByteArray());
+            } catch (ResourceAccessException e) {
+                throw e.getCause() instanceof IOException cause ? cause : new IOException(e);
+            }
+        }
+    }
+
+    private static class Response extends LowLevelHttpResponse {
+        private final HttpStatusCode status;
+        private final byte[] body;
+        private final String contentType;
+        private final List<Map.Entry<String, String>> headers = new ArrayList<>();
+
+        Response(HttpStatusCode status, HttpHeaders headers, byte[] body) {
+            this.status = status;
+            this.body = body != null ? body : new byte[0];
+            this.contentType = headers != null && headers.getContentType() != null
+                    ? headers.getContentType().toString() : null;
+            if (headers != null) {
+                headers.forEach((name, values) -> values.forEach(value -> this.headers.add(Map.entry(name, value))));
+            }
+        }
+
+        @Override
+        public InputStream getContent() {
+            return new ByteArrayInputStream(body);
+        }
+
+        // Already decoded by the pooled client
+        @Override
+        public String getContentEncoding() {
+            return null;
+        }
+
+        @Override
+        public long getContentLength() {
+            return body.length;
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public String getStatusLine() {
+            return "HTTP/1.1 " + status.value();
+        }
+
+        @Override
+        public int getStatusCode() {
+            return status.value();
+        }
+
+        @Override
+        public String getReasonPhrase() {
+            return null;
+        }
+
+        @Override
+        public int getHeaderCount() {
+            return headers.size();
+        }
+
+        @Override
+        public String getHeaderName(int index) {
+            return headers.get(index).getKey();
+        }
+
+        @Override
+        public String getHeaderValue(int index) {
+            return headers.get(index).getValue();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.security.jwt;
+
+import java.util.Arrays;
+
+// Unpadded Base64URL straight to and from caller-owned buffers, for the allocation-free token paths
+final class Base64Url {
+    private static final byte[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes();
+    private static final int[] VALUES = new int[128];
+
+    static {
+        Arrays.fill(VALUES, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base64Url() {
+    }
+
+    static int encodedLength(int length) {
+        return (length * 4 + 2) / 3;
+    }
+
+    // Writes the encoding of source[0, length) at target[offset]; returns the new offset
+    static int encode(byte[] source, int length, byte[] target, int offset) {
+        int i = 0;
+        while (i + 3 <= length) {
+            int bits = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8 | (source[i + 2] & 0xff);
+            target[offset++] = ALPHABET[bits >>> 18];
+            target[offset++] = ALPHABET[(bits >>> 12) & 0x3f];
+            target[offset++] = ALPHABET[(bits >>> 6) & 0x3f];
+            target[offset++] = ALPHABET[bits & 0x3f];
+            i += 3;
+        }
+        int remaining = length - i;
+        if (remaining == 1) {
+            int bits = (source[i] & 0xff) << 16;
+            target[offset++] = ALPHABET[bits >>> 18];
+            target[offset++] = ALPHABET[(bits >>> 12) & 0x3f];
+        } else if (remaining == 2) {
+            int bits = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8;
+            target[offset++] = ALPHABET[bits >>> 18];
+            target[offset++] = ALPHABET[(bits >>> 12) & 0x3f];
+            target[offset++] = ALPHABET[(bits >>> 6) & 0x3f];
+        }
+        return offset;
+    }
+
+    // Returns the number of bytes written, or -1 if the input is not unpadded Base64URL or does not fit
+    static int decode(String source, int from, int to, byte[] target) {
+        int bits = 0;
+        int bitCount = 0;
+        int written = 0;
+        for (int i = from; i < to; i++) {
+            char c = source.charAt(i);
+            int value = c < 128 ? VALUES[c] : -1;
+            if (value < 0) {
+                return -1;
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                if (written == target.length) {
+                    return -1;
+                }
+                target[written++] = (byte) (bits >> bitCount);
+            }
+        }
+        // Leftover bits must be zero, otherwise several encodings would map to the same bytes
+        if (bitCount >= 6 || (bits & ((1 << bitCount) - 1)) != 0) {
+            return -1;
+        }
+        return written;
+    }
+}
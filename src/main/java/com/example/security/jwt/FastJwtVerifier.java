@@ -0,0 +1,229 @@
+package com.example.security.jwt;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.base.Suppliers;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Verifies the HS256 tokens we issue ourselves without going through jjwt: the signature is checked over the
+// raw characters with a per-thread Mac and the payload is read with a streaming parser. Anything it does not
+// recognise (foreign header, nested or non-integer claims, missing exp, bad signature, expired) returns null
+// so the caller can fall back to the full jjwt path, which produces the proper exception.
+// Only sub, iat and exp are read up front; the other claims stay in a copy of the payload and are parsed into a
+// map the first time one of them is asked for.
+@Component
+public class FastJwtVerifier {
+    private static final int MAX_TOKEN_LENGTH = 8192;
+    private static final int HS256_SIGNATURE_LENGTH = 32;
+    private static final String LEGACY_HEADER = "eyJhbGciOiJIUzI1NiJ9"; // {"alg":"HS256"}
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    @Autowired
+    private JwtKeyRegistry keyRegistry;
+
+    private volatile HeaderIndex headerIndex;
+
+    public VerifiedToken verify(String token) {
+        int length = token.length();
+        if (length > MAX_TOKEN_LENGTH) {
+            return null;
+        }
+        int firstDot = token.indexOf('.');
+        int secondDot = firstDot < 0 ? -1 : token.indexOf('.', firstDot + 1);
+        if (secondDot < 0 || token.indexOf('.', secondDot + 1) >= 0) {
+            return null;
+        }
+
+        JwtSigningKey key = headerIndex().match(token, firstDot);
+        if (key == null) {
+            return null;
+        }
+
+        Buffers buffers = BUFFERS.get();
+        byte[] signingInput = buffers.signingInput(secondDot);
+        for (int i = 0; i < secondDot; i++) {
+            char c = token.charAt(i);
+            if (c > 127) {
+                return null;
+            }
+            signingInput[i] = (byte) c;
+        }
+        if (Base64Url.decode(token, secondDot + 1, length, buffers.signature) != HS256_SIGNATURE_LENGTH) {
+            return null;
+        }
+        Mac mac = key.mac();
+        mac.update(signingInput, 0, secondDot);
+        try {
+            mac.doFinal(buffers.expected, 0);
+        } catch (ShortBufferException e) {
+            mac.reset();
+            return null;
+        }
+        if (!MessageDigest.isEqual(buffers.expected, buffers.signature)) {
+            return null;
+        }
+
+        byte[] payload = buffers.payload((secondDot - firstDot) * 3 / 4 + 1);
+        int payloadLength = Base64Url.decode(token, firstDot + 1, secondDot, payload);
+        if (payloadLength < 0) {
+            return null;
+        }
+        return readClaims(key.getKeyId(), payload, payloadLength);
+    }
+
+    // Checks the payload is a flat object of strings and integers and reads sub, iat and exp; other values are
+    // skipped without being decoded
+    private VerifiedToken readClaims(String keyId, byte[] payload, int payloadLength) {
+        String subject = null;
+        Long issuedAt = null;
+        Long expiresAt = null;
+        try (JsonParser parser = JSON.createParser(payload, 0, payloadLength)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.VALUE_STRING) {
+                    if ("sub".equals(name)) {
+                        subject = parser.getText();
+                    }
+                } else if (value == JsonToken.VALUE_NUMBER_INT) {
+                    JsonParser.NumberType type = parser.getNumberType();
+                    if (type != JsonParser.NumberType.INT && type != JsonParser.NumberType.LONG) {
+                        return null;
+                    }
+                    if ("exp".equals(name)) {
+                        expiresAt = parser.getLongValue();
+                    } else if ("iat".equals(name)) {
+                        issuedAt = parser.getLongValue();
+                    }
+                } else {
+                    return null;
+                }
+                // jjwt owns the "not before" error reporting
+                if ("nbf".equals(name)) {
+                    return null;
+                }
+            }
+            if (parser.currentToken() != JsonToken.END_OBJECT || parser.nextToken() != null) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        // jjwt owns the expiry error reporting
+        if (expiresAt == null || expiresAt * 1000 <= System.currentTimeMillis()) {
+            return null;
+        }
+        byte[] json = Arrays.copyOf(payload, payloadLength);
+        return VerifiedToken.builder()
+                .keyId(keyId)
+                .subject(subject)
+                .issuedAt(issuedAt != null ? Instant.ofEpochSecond(issuedAt) : null)
+                .expiresAt(Instant.ofEpochSecond(expiresAt))
+                .claims(Suppliers.memoize(() -> parseClaims(json)))
+                .build();
+    }
+
+    // Strings stay String and integers come back as Integer or Long, as jjwt returns them
+    private static Map<String, Object> parseClaims(byte[] json) {
+        Map<String, Object> claims = new LinkedHashMap<>();
+        try (JsonParser parser = JSON.createParser(json)) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                claims.put(name, value == JsonToken.VALUE_STRING ? parser.getText() : parser.getNumberValue());
+            }
+        } catch (IOException e) {
+            // Already parsed once when the token was verified
+            throw new UncheckedIOException(e);
+        }
+        return Collections.unmodifiableMap(claims);
+    }
+
+    private HeaderIndex headerIndex() {
+        HeaderIndex index = headerIndex;
+        long version = keyRegistry.version();
+        if (index == null || index.version != version) {
+            index = new HeaderIndex(version, keyRegistry);
+            headerIndex = index;
+        }
+        return index;
+    }
+
+    private static final class HeaderIndex {
+        private final long version;
+        private final List<String> headers = new ArrayList<>();
+        private final List<JwtSigningKey> keys = new ArrayList<>();
+
+        HeaderIndex(long version, JwtKeyRegistry registry) {
+            this.version = version;
+            for (JwtSigningKey key : registry.activeKeys().values()) {
+                if (key.getAlgorithm() == SignatureAlgorithm.HS256) {
+                    headers.add(key.getEncodedHeader());
+                    keys.add(key);
+                }
+            }
+            // Tokens issued before kid headers existed
+            if (registry.isAccepted(null)) {
+                JwtSigningKey primary = registry.resolve(null);
+                if (primary.getAlgorithm() == SignatureAlgorithm.HS256) {
+                    headers.add(LEGACY_HEADER);
+                    keys.add(primary);
+                }
+            }
+        }
+
+        JwtSigningKey match(String token, int headerLength) {
+            for (int i = 0; i < headers.size(); i++) {
+                String header = headers.get(i);
+                if (header.length() == headerLength && token.regionMatches(0, header, 0, headerLength)) {
+                    return keys.get(i);
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class Buffers {
+        private final byte[] signature = new byte[HS256_SIGNATURE_LENGTH];
+        private final byte[] expected = new byte[HS256_SIGNATURE_LENGTH];
+        private byte[] signingInput = new byte[512];
+        private byte[] payload = new byte[384];
+
+        byte[] signingInput(int length) {
+            if (signingInput.length < length) {
+                signingInput = new byte[length];
+            }
+            return signingInput;
+        }
+
+        byte[] payload(int length) {
+            if (payload.length < length) {
+                payload = new byte[length];
+            }
+            return payload;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.example.security.jwt;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.io.Encoders;
+import io.jsonwebtoken.security.Keys;
+import com.example.security.cache.ClusterEvent;
+import com.example.security.cache.ClusterEventBus;
+import com.example.security.model.SigningKeyState;
+import com.example.security.repository.SigningKeyStateRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.security.Key;
+import java.security.KeyPair;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+// Every key we accept, decoded once at startup. Tokens are signed with the current key and carry its id
+// in the "kid" header; any key that is not retired still verifies, so rotating does not log users out.
+// HMAC keys come from jwt.secret / jwt.additional-keys; with jwt.algorithm=RS256 or ES256 an asymmetric
+// key pair is added and signs by default, and its public half is published through the JWKS endpoint.
+// Keys are only ever loaded from configuration, so every node holds the same ones. Switching the signing key or
+// retiring one at runtime is stored in signing_key_states, which every node reads at startup on top of
+// jwt.signing-key-id / jwt.retired-key-ids, and sent to the running nodes over the ClusterEventBus. With the
+// in-process bus the other nodes only pick the change up when they restart.
+@Slf4j
+@Component
+public class JwtKeyRegistry {
+    @Value("${jwt.secret}")
+    private String SECRET_KEY;
+
+    @Value("${jwt.key-id:primary}")
+    private String PRIMARY_KEY_ID;
+
+    // Extra keys as "kid=base64Secret;kid2=base64Secret"
+    @Value("${jwt.additional-keys:}")
+    private String ADDITIONAL_KEYS;
+
+    @Value("${jwt.signing-key-id:}")
+    private String SIGNING_KEY_ID;
+
+    @Value("${jwt.retired-key-ids:}")
+    private String RETIRED_KEY_IDS;
+
+    @Value("${jwt.algorithm:HS256}")
+    private String ALGORITHM;
+
+    @Value("${jwt.asymmetric.key-id:}")
+    private String ASYMMETRIC_KEY_ID;
+
+    // Inline PEM or path to a PEM file; both are required with RS256/ES256
+    @Value("${jwt.asymmetric.private-key:}")
+    private String PRIVATE_KEY;
+
+    @Value("${jwt.asymmetric.public-key:}")
+    private String PUBLIC_KEY;
+
+    // Development only: sign with a key pair generated at startup when no PEM is configured. Its tokens do not
+    // survive a restart and do not verify on any other node.
+    @Value("${jwt.asymmetric.allow-ephemeral-key:false}")
+    private boolean ALLOW_EPHEMERAL_KEY;
+
+    private static final ObjectMapper HEADER_WRITER = new ObjectMapper();
+
+    @Autowired
+    private ClusterEventBus clusterEventBus;
+
+    @Autowired
+    private SigningKeyStateRepository signingKeyStateRepository;
+
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private volatile KeySet keySet;
+    private JwtParser parser;
+
+    @PostConstruct
+    public void init() {
+        Map<String, JwtSigningKey> keys = new LinkedHashMap<>();
+        keys.put(PRIMARY_KEY_ID, hmacKey(PRIMARY_KEY_ID, SECRET_KEY));
+        for (String entry : ADDITIONAL_KEYS.split(";")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] parts = entry.trim().split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalStateException("Invalid jwt.additional-keys entry: " + parts[0]);
+            }
+            keys.put(parts[0].trim(), hmacKey(parts[0].trim(), parts[1].trim()));
+        }
+
+        String defaultSigningKeyId = PRIMARY_KEY_ID;
+        SignatureAlgorithm algorithm = SignatureAlgorithm.forName(ALGORITHM.trim());
+        if (algorithm != SignatureAlgorithm.HS256) {
+            JwtSigningKey asymmetricKey = asymmetricKey(algorithm);
+            keys.put(asymmetricKey.getKeyId(), asymmetricKey);
+            defaultSigningKeyId = asymmetricKey.getKeyId();
+        }
+
+        Set<String> retired = new HashSet<>();
+        for (String kid : RETIRED_KEY_IDS.split(",")) {
+            if (!kid.isBlank()) {
+                retired.add(kid.trim());
+            }
+        }
+
+        String signingKeyId = SIGNING_KEY_ID.isBlank() ? defaultSigningKeyId : SIGNING_KEY_ID.trim();
+        // Changes made through the admin endpoints win over the configuration; retiring is permanent, and the
+        // latest activation of a key that is still configured and not retired picks the signing key
+        List<SigningKeyState> states = signingKeyStateRepository.findAll();
+        for (SigningKeyState state : states) {
+            if (state.getRetiredAt() != null) {
+                retired.add(state.getKeyId());
+            }
+        }
+        long lastActivatedAt = Long.MIN_VALUE;
+        for (SigningKeyState state : states) {
+            Long activatedAt = state.getActivatedAt();
+            if (activatedAt != null && activatedAt > lastActivatedAt && keys.containsKey(state.getKeyId())
+                    && !retired.contains(state.getKeyId())) {
+                signingKeyId = state.getKeyId();
+                lastActivatedAt = activatedAt;
+            }
+        }
+        keySet = new KeySet(keys, retired, signingKeyId, 0);
+
+        parser = Jwts.parserBuilder()
+                .setSigningKeyResolver(new SigningKeyResolverAdapter() {
+                    @Override
+                    public Key resolveSigningKey(JwsHeader header, Claims claims) {
+                        JwtSigningKey key = resolve(header.getKeyId());
+                        // Never let the token pick the algorithm, e.g. HS256 with a public key as the secret
+                        if (!key.getAlgorithm().getValue().equals(header.getAlgorithm())) {
+                            throw new JwtException("Algorithm " + header.getAlgorithm() + " not allowed for kid " + key.getKeyId());
+                        }
+                        return key.getVerificationKey();
+                    }
+                })
+                .build();
+
+        clusterEventBus.subscribe(this::onEvent);
+        log.info("Loaded {} JWT signing key(s), signing with kid={}", keys.size(), signingKeyId);
+    }
+
+    // Shared by all threads; DefaultJwtParser is immutable once built
+    public JwtParser parser() {
+        return parser;
+    }
+
+    public JwtSigningKey currentKey() {
+        return keySet.current();
+    }
+
+    public String primaryKeyId() {
+        return PRIMARY_KEY_ID;
+    }
+
+    public JwtSigningKey resolve(String keyId) {
+        KeySet current = keySet;
+        // Tokens issued before kid headers were introduced are signed with the primary key
+        String kid = keyId != null ? keyId : PRIMARY_KEY_ID;
+        JwtSigningKey key = current.keys().get(kid);
+        if (key == null || current.retired().contains(kid)) {
+            throw new JwtException("Unknown or retired signing key: " + kid);
+        }
+        return key;
+    }
+
+    public boolean isAccepted(String keyId) {
+        KeySet current = keySet;
+        String kid = keyId != null ? keyId : PRIMARY_KEY_ID;
+        return current.keys().containsKey(kid) && !current.retired().contains(kid);
+    }
+
+    // Bumped on every activate/retire so derived views (JWKS) know when to rebuild
+    public long version() {
+        return keySet.version();
+    }
+
+    public Map<String, JwtSigningKey> activeKeys() {
+        KeySet current = keySet;
+        Map<String, JwtSigningKey> active = new LinkedHashMap<>(current.keys());
+        active.keySet().removeAll(current.retired());
+        return Collections.unmodifiableMap(active);
+    }
+
+    public void activate(String keyId) {
+        applyActivate(keyId);
+        long now = System.currentTimeMillis();
+        SigningKeyState state = stateOf(keyId);
+        state.setActivatedAt(now);
+        signingKeyStateRepository.save(state);
+        clusterEventBus.publish(ClusterEvent.signingKeyActivated(nodeId, keyId, now));
+    }
+
+    public void retire(String keyId) {
+        applyRetire(keyId);
+        long now = System.currentTimeMillis();
+        SigningKeyState state = stateOf(keyId);
+        state.setRetiredAt(now);
+        signingKeyStateRepository.save(state);
+        clusterEventBus.publish(ClusterEvent.signingKeyRetired(nodeId, keyId, now));
+    }
+
+    private SigningKeyState stateOf(String keyId) {
+        return signingKeyStateRepository.findById(keyId)
+                .orElseGet(() -> SigningKeyState.builder().keyId(keyId).build());
+    }
+
+    private synchronized void applyActivate(String keyId) {
+        KeySet current = keySet;
+        if (!current.keys().containsKey(keyId) || current.retired().contains(keyId)) {
+            throw new IllegalArgumentException("Unknown or retired signing key: " + keyId);
+        }
+        keySet = new KeySet(current.keys(), current.retired(), keyId, current.version() + 1);
+        log.info("Now signing JWTs with kid={}", keyId);
+    }
+
+    private synchronized void applyRetire(String keyId) {
+        KeySet current = keySet;
+        if (keyId.equals(current.signingKeyId())) {
+            throw new IllegalArgumentException("Cannot retire the key currently used for signing: " + keyId);
+        }
+        Set<String> retired = new HashSet<>(current.retired());
+        retired.add(keyId);
+        keySet = new KeySet(current.keys(), retired, current.signingKeyId(), current.version() + 1);
+        log.info("Retired JWT signing key kid={}", keyId);
+    }
+
+    // A node that rejects a change is configured with different keys than the one that made it
+    private void onEvent(ClusterEvent event) {
+        if (nodeId.equals(event.origin())) {
+            return;
+        }
+        try {
+            switch (event.type()) {
+                case SIGNING_KEY_ACTIVATED -> applyActivate(event.tokenId());
+                case SIGNING_KEY_RETIRED -> applyRetire(event.tokenId());
+                default -> {
+                    // Events for the session and user caches
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            log.error("Could not apply {} from another node: {}", event.type(), e.getMessage());
+        }
+    }
+
+    private static JwtSigningKey hmacKey(String keyId, String base64Secret) {
+        Key key = Keys.hmacShaKeyFor(Decoders.BASE64.decode(base64Secret));
+        return new JwtSigningKey(keyId, SignatureAlgorithm.HS256, key, key, encodedHeader(keyId, SignatureAlgorithm.HS256));
+    }
+
+    // Same field order jjwt writes: kid first, then alg
+    private static String encodedHeader(String keyId, SignatureAlgorithm algorithm) {
+        Map<String, Object> header = new LinkedHashMap<>();
+        header.put("kid", keyId);
+        header.put("alg", algorithm.getValue());
+        try {
+            return Encoders.BASE64URL.encode(HEADER_WRITER.writeValueAsBytes(header));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot encode JWT header for kid " + keyId, e);
+        }
+    }
+
+    private JwtSigningKey asymmetricKey(SignatureAlgorithm algorithm) {
+        if (!algorithm.isRsa() && !algorithm.isEllipticCurve()) {
+            throw new IllegalStateException("Unsupported jwt.algorithm: " + algorithm.getValue());
+        }
+        String keyId = ASYMMETRIC_KEY_ID.isBlank() ? algorithm.getValue().toLowerCase() : ASYMMETRIC_KEY_ID.trim();
+        String keyAlgorithm = algorithm.isRsa() ? "RSA" : "EC";
+
+        if (PRIVATE_KEY.isBlank() && PUBLIC_KEY.isBlank()) {
+            if (!ALLOW_EPHEMERAL_KEY) {
+                throw new IllegalStateException("jwt.algorithm=" + algorithm.getValue()
+                        + " requires jwt.asymmetric.private-key and jwt.asymmetric.public-key");
+            }
+            log.warn("No jwt.asymmetric key pair configured; generated an ephemeral {} key pair. "
+                    + "Tokens will not survive a restart or verify on other nodes.", algorithm.getValue());
+            KeyPair keyPair = Keys.keyPairFor(algorithm);
+            return new JwtSigningKey(keyId, algorithm, keyPair.getPrivate(), keyPair.getPublic(), encodedHeader(keyId, algorithm));
+        }
+        if (PRIVATE_KEY.isBlank() || PUBLIC_KEY.isBlank()) {
+            throw new IllegalStateException("Both jwt.asymmetric.private-key and jwt.asymmetric.public-key are required");
+        }
+        return new JwtSigningKey(keyId, algorithm,
+                PemKeys.privateKey(PRIVATE_KEY, keyAlgorithm),
+                PemKeys.publicKey(PUBLIC_KEY, keyAlgorithm),
+                encodedHeader(keyId, algorithm));
+    }
+
+    private record KeySet(Map<String, JwtSigningKey> keys, Set<String> retired, String signingKeyId, long version) {
+        KeySet {
+            keys = Collections.unmodifiableMap(keys);
+            retired = Collections.unmodifiableSet(retired);
+            if (!keys.containsKey(signingKeyId) || retired.contains(signingKeyId)) {
+                throw new IllegalStateException("Signing key is unknown or retired: " + signingKeyId);
+            }
+        }
+
+        JwtSigningKey current() {
+            return keys.get(signingKeyId);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.security.jwt;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+// Builds HS256 tokens without JwtBuilder: the header segment is pre-encoded per key, the claims are written
+// straight into a per-thread byte buffer and signed with the key's per-thread Mac. Output is the same
+// compact form jjwt produces. Returns null for anything it does not handle (non-HMAC key, claim values
+// other than strings and integers) so the caller can use jjwt instead.
+@Component
+public class JwtMinter {
+    private static final int HS256_SIGNATURE_LENGTH = 32;
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    public String mint(JwtSigningKey key, Map<String, ?> extraClaims, String subject,
+                       long issuedAtMillis, long expiresAtMillis) {
+        if (key.getAlgorithm() != SignatureAlgorithm.HS256) {
+            return null;
+        }
+        Buffers buffers = BUFFERS.get();
+        buffers.length = 0;
+
+        buffers.write('{');
+        boolean first = true;
+        boolean subjectWritten = false;
+        boolean issuedAtWritten = false;
+        boolean expiresAtWritten = false;
+        for (Map.Entry<String, ?> claim : extraClaims.entrySet()) {
+            String name = claim.getKey();
+            Object value = claim.getValue();
+            // jjwt drops null claims, and the registered claims replace extra claims of the same name in place
+            if (value == null || ("sub".equals(name) && subject == null)) {
+                continue;
+            }
+            if ("sub".equals(name)) {
+                value = subject;
+                subjectWritten = true;
+            } else if ("iat".equals(name)) {
+                value = issuedAtMillis / 1000;
+                issuedAtWritten = true;
+            } else if ("exp".equals(name)) {
+                value = expiresAtMillis / 1000;
+                expiresAtWritten = true;
+            }
+            if (!first) {
+                buffers.write(',');
+            }
+            first = false;
+            if (!buffers.writeString(name)) {
+                return null;
+            }
+            buffers.write(':');
+            if (value instanceof String text) {
+                if (!buffers.writeString(text)) {
+                    return null;
+                }
+            } else if (value instanceof Integer || value instanceof Long
+                    || value instanceof Short || value instanceof Byte) {
+                buffers.writeNumber(((Number) value).longValue());
+            } else {
+                return null;
+            }
+        }
+        if (subject != null && !subjectWritten) {
+            if (!first) {
+                buffers.write(',');
+            }
+            first = false;
+            buffers.writeAscii("\"sub\":");
+            if (!buffers.writeString(subject)) {
+                return null;
+            }
+        }
+        if (!issuedAtWritten) {
+            if (!first) {
+                buffers.write(',');
+            }
+            first = false;
+            buffers.writeAscii("\"iat\":");
+            buffers.writeNumber(issuedAtMillis / 1000);
+        }
+        if (!expiresAtWritten) {
+            if (!first) {
+                buffers.write(',');
+            }
+            buffers.writeAscii("\"exp\":");
+            buffers.writeNumber(expiresAtMillis / 1000);
+        }
+        buffers.write('}');
+
+        String header = key.getEncodedHeader();
+        int headerLength = header.length();
+        byte[] out = buffers.output(headerLength + 2
+                + Base64Url.encodedLength(buffers.length)
+                + Base64Url.encodedLength(HS256_SIGNATURE_LENGTH));
+        for (int i = 0; i < headerLength; i++) {
+            out[i] = (byte) header.charAt(i);
+        }
+        int offset = headerLength;
+        out[offset++] = '.';
+        offset = Base64Url.encode(buffers.json, buffers.length, out, offset);
+
+        Mac mac = key.mac();
+        mac.update(out, 0, offset);
+        try {
+            mac.doFinal(buffers.signature, 0);
+        } catch (ShortBufferException e) {
+            mac.reset();
+            return null;
+        }
+        out[offset++] = '.';
+        offset = Base64Url.encode(buffers.signature, HS256_SIGNATURE_LENGTH, out, offset);
+        return new String(out, 0, offset, StandardCharsets.ISO_8859_1);
+    }
+
+    private static final class Buffers {
+        private final byte[] signature = new byte[HS256_SIGNATURE_LENGTH];
+        private byte[] json = new byte[256];
+        private byte[] out = new byte[512];
+        private int length;
+
+        byte[] output(int size) {
+            if (out.length < size) {
+                out = new byte[size];
+            }
+            return out;
+        }
+
+        void write(int b) {
+            if (length == json.length) {
+                json = Arrays.copyOf(json, json.length * 2);
+            }
+            json[length++] = (byte) b;
+        }
+
+        void writeAscii(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                write(text.charAt(i));
+            }
+        }
+
+        void writeNumber(long value) {
+            writeAscii(Long.toString(value));
+        }
+
+        // JSON string as UTF-8, escaped the way Jackson escapes it for jjwt; false on an unpaired surrogate,
+        // which jjwt handles its own way
+        boolean writeString(String text) {
+            write('"');
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"' || c == '\\') {
+                    write('\\');
+                    write(c);
+                } else if (c == '\n') {
+                    writeAscii("\\n");
+                } else if (c == '\r') {
+                    writeAscii("\\r");
+                } else if (c == '\t') {
+                    writeAscii("\\t");
+                } else if (c == '\b') {
+                    writeAscii("\\b");
+                } else if (c == '\f') {
+                    writeAscii("\\f");
+                } else if (c < 0x20) {
+                    writeEscaped(c);
+                } else if (c < 0x80) {
+                    write(c);
+                } else if (c < 0x800) {
+                    write(0xc0 | (c >> 6));
+                    write(0x80 | (c & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    if (!Character.isHighSurrogate(c) || i + 1 == text.length()
+                            || !Character.isLowSurrogate(text.charAt(i + 1))) {
+                        return false;
+                    }
+                    // Jackson writes characters outside the BMP as two escaped surrogates, not as 4-byte UTF-8
+                    writeEscaped(c);
+                    writeEscaped(text.charAt(++i));
+                } else {
+                    write(0xe0 | (c >> 12));
+                    write(0x80 | ((c >> 6) & 0x3f));
+                    write(0x80 | (c & 0x3f));
+                }
+            }
+            write('"');
+            return true;
+        }
+
+        void writeEscaped(char c) {
+            writeAscii("\\u");
+            write(HEX[c >> 12]);
+            write(HEX[(c >> 8) & 0xf]);
+            write(HEX[(c >> 4) & 0xf]);
+            write(HEX[c & 0xf]);
+        }
+    }
+}
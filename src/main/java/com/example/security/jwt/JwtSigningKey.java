@@ -0,0 +1,49 @@
+package com.example.security.jwt;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+import lombok.AccessLevel;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.Value;
+
+import javax.crypto.Mac;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+
+@Value
+public class JwtSigningKey {
+    String keyId;
+    SignatureAlgorithm algorithm;
+    Key signingKey;
+    Key verificationKey;
+    // Base64URL of the JOSE header we put on tokens signed with this key
+    String encodedHeader;
+
+    @Getter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    ThreadLocal<Mac> macs = ThreadLocal.withInitial(this::newMac);
+
+    public boolean isHmac() {
+        return algorithm.isHmac();
+    }
+
+    // Initialised once per thread; callers must finish with doFinal() before handing the thread back
+    public Mac mac() {
+        return macs.get();
+    }
+
+    private Mac newMac() {
+        if (!isHmac()) {
+            throw new IllegalStateException("Key " + keyId + " is not an HMAC key");
+        }
+        try {
+            Mac mac = Mac.getInstance(algorithm.getJcaName());
+            mac.init(signingKey);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot initialise " + algorithm.getJcaName() + " for key " + keyId, e);
+        }
+    }
+}
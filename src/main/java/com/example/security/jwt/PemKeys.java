@@ -0,0 +1,47 @@
+package com.example.security.jwt;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+
+// Reads PKCS#8 private keys and X.509 public keys, either inline PEM text or a path to a .pem file
+final class PemKeys {
+    private PemKeys() {
+    }
+
+    static PrivateKey privateKey(String pemOrPath, String keyAlgorithm) {
+        try {
+            return KeyFactory.getInstance(keyAlgorithm).generatePrivate(new PKCS8EncodedKeySpec(decode(pemOrPath)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Invalid " + keyAlgorithm + " private key", e);
+        }
+    }
+
+    static PublicKey publicKey(String pemOrPath, String keyAlgorithm) {
+        try {
+            return KeyFactory.getInstance(keyAlgorithm).generatePublic(new X509EncodedKeySpec(decode(pemOrPath)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Invalid " + keyAlgorithm + " public key", e);
+        }
+    }
+
+    private static byte[] decode(String pemOrPath) {
+        String pem = pemOrPath.trim();
+        if (!pem.startsWith("-----BEGIN")) {
+            try {
+                pem = Files.readString(Path.of(pem));
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read key file " + pemOrPath, e);
+            }
+        }
+        String body = pem.replaceAll("-----(BEGIN|END) [A-Z ]+-----", "").replaceAll("\\s", "");
+        return Base64.getDecoder().decode(body);
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.security.jwt;
+
+import io.jsonwebtoken.Claims;
+import lombok.AccessLevel;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.Value;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Result of a single signature check + parse; pass this around instead of the raw token
+@Value
+@Builder
+public class VerifiedToken {
+    String keyId;
+    String subject;
+    Instant issuedAt;
+    Instant expiresAt;
+    // Every claim; FastJwtVerifier supplies it lazily, so the map is only built for tokens whose other claims are read
+    @Getter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    Supplier<Map<String, Object>> claims;
+
+    public static VerifiedToken from(String keyId, Claims claims) {
+        Map<String, Object> copy = Collections.unmodifiableMap(new LinkedHashMap<>(claims));
+        return VerifiedToken.builder()
+                .keyId(keyId)
+                .subject(claims.getSubject())
+                .issuedAt(claims.getIssuedAt() != null ? claims.getIssuedAt().toInstant() : null)
+                .expiresAt(claims.getExpiration() != null ? claims.getExpiration().toInstant() : null)
+                .claims(() -> copy)
+                .build();
+    }
+
+    public Map<String, Object> getClaims() {
+        return claims.get();
+    }
+
+    public boolean isExpired() {
+        return expiresAt != null && expiresAt.isBefore(Instant.now());
+    }
+
+    public <T> T getClaim(String name, Class<T> type) {
+        Object value = claims.get().get(name);
+        return type.isInstance(value) ? type.cast(value) : null;
+    }
+}
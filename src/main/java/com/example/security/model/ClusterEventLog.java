@@ -0,0 +1,49 @@
+package com.example.security.model;
+
+import com.example.security.cache.ClusterEvent;
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Append-only log read by every node's JdbcClusterEventBus; rows are removed after session-bus.retention-minutes
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "session_events")
+public class ClusterEventLog {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "type", nullable = false, length = 32)
+    private ClusterEvent.Type type;
+
+    @Column(name = "origin", nullable = false, length = 64)
+    private String origin;
+
+    @Column(name = "user_id", nullable = false)
+    private long userId;
+
+    @Column(name = "session_id", length = 64)
+    private String sessionId;
+
+    @Column(name = "token_id", length = 64)
+    private String tokenId;
+
+    @Column(name = "fingerprint_high", nullable = false)
+    private long fingerprintHigh;
+
+    @Column(name = "fingerprint_low", nullable = false)
+    private long fingerprintLow;
+
+    @Column(name = "expires_at", nullable = false)
+    private long expiresAt;
+
+    @Column(name = "created_at", nullable = false)
+    private long createdAt;
+}
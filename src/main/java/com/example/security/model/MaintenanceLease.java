@@ -0,0 +1,37 @@
+package com.example.security.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+// One row per background job that must run on a single node at a time; the node whose lease has not run out owns
+// the job. The job's progress is kept next to the lease so whichever node takes over resumes where it stopped.
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "maintenance_leases")
+public class MaintenanceLease {
+    @Id
+    @Column(length = 64)
+    private String name;
+
+    @Column(length = 64)
+    private String owner;
+
+    // Epoch millis
+    @Column(name = "lease_until", nullable = false)
+    private long leaseUntil;
+
+    // Keyset position of the last processed row
+    @Column(name = "cursor_expiry_date")
+    private Instant cursorExpiryDate;
+
+    @Column(name = "cursor_id")
+    private Long cursorId;
+}
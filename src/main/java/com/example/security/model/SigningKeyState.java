@@ -0,0 +1,29 @@
+package com.example.security.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// Activate/retire changes made through the admin endpoints, one row per key id. Read by every node at startup,
+// so a change outlives the restart of the node that made it.
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "signing_key_states")
+public class SigningKeyState {
+    @Id
+    @Column(name = "key_id", length = 64)
+    private String keyId;
+
+    // Epoch millis of the last activation; the most recent one picks the signing key
+    @Column(name = "activated_at")
+    private Long activatedAt;
+
+    // Epoch millis
+    @Column(name = "retired_at")
+    private Long retiredAt;
+}
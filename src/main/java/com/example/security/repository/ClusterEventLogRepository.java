@@ -0,0 +1,25 @@
+package com.example.security.repository;
+
+import com.example.security.model.ClusterEventLog;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface ClusterEventLogRepository extends JpaRepository<ClusterEventLog, Long> {
+    List<ClusterEventLog> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    @Query("SELECT e FROM ClusterEventLog e WHERE e.id > :after AND e.id <= :upTo AND e.createdAt >= :since ORDER BY e.id")
+    List<ClusterEventLog> findForReplay(@Param("after") long after, @Param("upTo") long upTo,
+                                        @Param("since") long since, Pageable pageable);
+
+    @Query("SELECT COALESCE(MAX(e.id), 0) FROM ClusterEventLog e")
+    long findMaxId();
+
+    @Modifying
+    @Query("DELETE FROM ClusterEventLog e WHERE e.createdAt < :before")
+    int deleteCreatedBefore(@Param("before") long before);
+}
@@ -9,13 +9,21 @@ import org.springframework.data.repository.query.Param;
 import java.util.Optional;
 
 public interface RefreshTokenRepository extends JpaRepository<RefreshToken, Long> {
-    Optional<RefreshToken> findByToken(String token);
+    Optional<RefreshToken> findByTokenHash(byte[] tokenHash);
+
+    default Optional<RefreshToken> findByToken(String token) {
+        return findByTokenHash(RefreshToken.hash(token));
+    }
+
+    // The refresh flow needs the user too; one query instead of a second lookup by email
+    @Query("SELECT rt FROM RefreshToken rt JOIN FETCH rt.user WHERE rt.tokenHash = :tokenHash")
+    Optional<RefreshToken> findWithUserByTokenHash(@Param("tokenHash") byte[] tokenHash);
     
     @Modifying
     @Query("DELETE FROM RefreshToken rt WHERE rt.user.id = :userId")
     void deleteByUserId(@Param("userId") Integer userId);
-    
+
     @Modifying
-    @Query("DELETE FROM RefreshToken rt WHERE rt.expiryDate < CURRENT_TIMESTAMP")
-    void deleteExpiredTokens();
+    @Query("DELETE FROM RefreshToken rt WHERE rt.user.id = :userId AND rt.sessionId = :sessionId")
+    void deleteByUserIdAndSessionId(@Param("userId") Integer userId, @Param("sessionId") String sessionId);
 } 
\ No newline at end of file
@@ -0,0 +1,7 @@
+package com.example.security.repository;
+
+import com.example.security.model.SigningKeyState;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface SigningKeyStateRepository extends JpaRepository<SigningKeyState, String> {
+}
@@ -6,16 +6,23 @@ import com.example.security.dto.request.RefreshTokenRequest;
 import com.example.security.dto.request.RegisterRequest;
 import com.example.security.enums.Role;
 import com.example.security.model.User;
+import com.example.security.model.UserSnapshot;
 import com.example.security.repository.UserRepository;
 import com.example.security.model.RefreshToken;
 import com.example.security.repository.RefreshTokenRepository;
 import com.example.security.cache.AccessTokenCache;
+import com.example.security.cache.RefreshTokenIndex;
+import com.example.security.cache.UserDetailsCache;
+import com.example.security.jwt.VerifiedToken;
+import io.jsonwebtoken.JwtException;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.http.ResponseEntity;
@@ -37,6 +44,14 @@ public class AuthenticationService {
     private AuthenticationManager authenticationManager;
     @Autowired
     private AccessTokenCache accessTokenCache;
+    @Autowired
+    private UserDetailsCache userDetailsCache;
+    @Autowired
+    private RefreshTokenWriter refreshTokenWriter;
+    @Autowired
+    private RefreshTokenIndex refreshTokenIndex;
+    @Autowired
+    private UserDetailsService userDetailsService;
 
     @Value("${token.refresh-token-expiration}")
     private long REFRESH_TOKEN_EXPIRATION;
@@ -57,62 +72,41 @@ public class AuthenticationService {
         user.setRole(Role.valueOf(request.getRole().toUpperCase()));
 
         repository.save(user);
+        userDetailsCache.invalidate(user);
 
-        String accessToken = jwtService.generateAccessToken(user);
-        String refreshToken = jwtService.generateRefreshToken(user);
-
-        // Save refresh token to database
-        saveRefreshToken(refreshToken, user);
-
-        accessTokenCache.put(user.getEmail(), accessToken);
+        AuthenticationResponse response = issueTokens(user, request.getDeviceId());
 
         AuthenticationResponse.UserData userData = new AuthenticationResponse.UserData();
         userData.setUserId(user.getId());
         userData.setRole(user.getRole().name());
         userData.setEmail(user.getEmail());
         userData.setFullName(user.getFirstName() + " " + user.getLastName());
-
-        AuthenticationResponse response = AuthenticationResponse.builder()
-                .accessToken(accessToken)
-                .refreshToken(refreshToken)
-                .user(userData)
-                .build();
+        response.setUser(userData);
 
         return ResponseEntity.ok(response);
     }
 
     @Transactional
     public ResponseEntity<AuthenticationResponse> authenticate(AuthenticationRequest request) {
-        authenticationManager.authenticate(
+        // The provider already loaded the user (through UserDetailsCache) to check the password; issue the tokens
+        // for that same snapshot instead of reading the row again
+        Authentication authentication = authenticationManager.authenticate(
                 new UsernamePasswordAuthenticationToken(request.getEmail(), request.getPassword())
         );
-
-        User user = repository.findByEmail(request.getEmail())
-                .orElseThrow(() -> new RuntimeException("Email không tồn tại"));
+        UserSnapshot user = (UserSnapshot) authentication.getPrincipal();
 
         if (user.getPassword() == null || user.getPassword().isEmpty()) {
             throw new RuntimeException("Tài khoản này chưa thiết lập mật khẩu. Vui lòng đăng nhập bằng Google hoặc đặt mật khẩu mới.");
         }
 
-        String accessToken = jwtService.generateAccessToken(user);
-        String refreshToken = jwtService.generateRefreshToken(user);
-
-        // Save refresh token to database
-        saveRefreshToken(refreshToken, user);
-
-        accessTokenCache.put(user.getEmail(), accessToken);
+        AuthenticationResponse response = issueTokens(user, user.getId(), request.getDeviceId());
 
         AuthenticationResponse.UserData userData = new AuthenticationResponse.UserData();
         userData.setUserId(user.getId());
         userData.setRole(user.getRole().name());
         userData.setEmail(user.getEmail());
         userData.setFullName(user.getFirstName() + " " + user.getLastName());
-
-        AuthenticationResponse response = AuthenticationResponse.builder()
-                .accessToken(accessToken)
-                .refreshToken(refreshToken)
-                .user(userData)
-                .build();
+        response.setUser(userData);
 
         return ResponseEntity.ok(response);
     }
@@ -120,22 +114,17 @@ public class AuthenticationService {
     @Transactional
     public ResponseEntity<AuthenticationResponse> refreshToken(RefreshTokenRequest request) {
         final String refreshToken = request.getRefreshToken();
-        final String userEmail = jwtService.extractUsername(refreshToken);
-
-        if (userEmail != null) {
-            User userDetails = repository.findByEmail(userEmail)
-                    .orElseThrow();
+        final VerifiedToken verifiedToken = jwtService.verify(refreshToken);
+        final String userEmail = verifiedToken.getSubject();
 
-            // Check if refresh token exists in database
-            RefreshToken storedRefreshToken = refreshTokenRepository.findByToken(refreshToken)
-                    .orElseThrow(() -> new RuntimeException("Refresh token not found in database"));
-            if (jwtService.isTokenValid(refreshToken, userDetails)
-                    && storedRefreshToken.getExpiryDate().isAfter(Instant.now())) {
+        if (userEmail != null && jwtService.isRefreshToken(verifiedToken)) {
+            UserSnapshot userDetails = findRefreshTokenOwner(verifiedToken, refreshToken);
+            if (userDetails != null && jwtService.isTokenValid(verifiedToken, userDetails)) {
 
-                // Only generate new access token, keep the same refresh token
-                String accessToken = jwtService.generateAccessToken(userDetails);
+                // Only generate new access token, keep the same refresh token and session
+                String accessToken = jwtService.generateAccessToken(userDetails, jwtService.sessionIdOf(verifiedToken));
 
-                accessTokenCache.put(userDetails.getEmail(), accessToken);
+                storeAccessToken(userDetails.getId(), accessToken);
 
                 return ResponseEntity.ok(AuthenticationResponse.builder()
                         .accessToken(accessToken)
@@ -147,25 +136,101 @@ public class AuthenticationService {
         throw new RuntimeException("Invalid refresh token");
     }
 
+    // Owner of a live refresh token, or null if it has expired. Answered by RefreshTokenIndex when it has the
+    // session, otherwise by one query that loads the row together with its user
+    private UserSnapshot findRefreshTokenOwner(VerifiedToken verifiedToken, String refreshToken) {
+        byte[] tokenHash = RefreshToken.hash(refreshToken);
+        Integer userId = jwtService.userIdOf(verifiedToken);
+        String sessionId = jwtService.sessionIdOf(verifiedToken);
+        if (userId != null) {
+            RefreshTokenIndex.Entry entry = refreshTokenIndex.get(userId, sessionId, tokenHash);
+            if (entry != null) {
+                return (UserSnapshot) userDetailsService.loadUserByUsername(entry.email());
+            }
+        }
+
+        // Refresh tokens issued before the uid claim are looked up every time
+        long version = userId != null ? refreshTokenIndex.version(userId) : 0;
+        RefreshToken storedRefreshToken = refreshTokenRepository.findWithUserByTokenHash(tokenHash)
+                .orElseThrow(() -> new RuntimeException("Refresh token not found in database"));
+        if (!storedRefreshToken.getExpiryDate().isAfter(Instant.now())) {
+            return null;
+        }
+        UserSnapshot user = UserSnapshot.from(storedRefreshToken.getUser());
+        if (userId != null && userId.equals(user.getId()) && sessionId.equals(storedRefreshToken.getSessionId())) {
+            refreshTokenIndex.put(userId, sessionId, version,
+                    new RefreshTokenIndex.Entry(tokenHash, user.getEmail(), storedRefreshToken.getExpiryDate()));
+        }
+        return user;
+    }
+
+    // Starts a new login session (or replaces the one for the same device) and returns its token pair
     @Transactional
-    public void saveRefreshToken(String token, User user) {
-        // Delete existing refresh token for this user first
-        refreshTokenRepository.deleteByUserId(user.getId());
+    public AuthenticationResponse issueTokens(User user, String deviceId) {
+        return issueTokens(user, user.getId(), deviceId);
+    }
 
-        RefreshToken refreshToken = RefreshToken.builder()
-                .token(token)
-                .user(user)
-                .expiryDate(Instant.now().plusSeconds(REFRESH_TOKEN_EXPIRATION/100)) // 7 days
+    private AuthenticationResponse issueTokens(UserDetails user, Integer userId, String deviceId) {
+        String sessionId = jwtService.newSessionId(deviceId);
+        String accessToken = jwtService.generateAccessToken(user, sessionId);
+        String refreshToken = jwtService.generateRefreshToken(user, sessionId);
+
+        // The access session goes live only once the refresh token is stored, so a failed write leaves nothing behind
+        saveRefreshToken(refreshToken, userId, sessionId, () -> storeAccessToken(userId, accessToken));
+
+        return AuthenticationResponse.builder()
+                .accessToken(accessToken)
+                .refreshToken(refreshToken)
                 .build();
-        refreshTokenRepository.save(refreshToken);
+    }
+
+    // Sessions pushed out by the per-user limit must not be able to refresh either, or they would push another
+    // session out on their next refresh and the limit would never hold
+    private void storeAccessToken(Integer userId, String accessToken) {
+        for (String displacedSessionId : accessTokenCache.put(userId, accessToken)) {
+            refreshTokenRepository.deleteByUserIdAndSessionId(userId, displacedSessionId);
+            refreshTokenIndex.invalidate(userId, displacedSessionId);
+        }
+    }
+
+    @Transactional
+    public void saveRefreshToken(String token, Integer userId, String sessionId, Runnable whenStored) {
+        // Replaces the refresh token of this session, if any, in one statement
+        refreshTokenWriter.upsert(userId, sessionId, token,
+                Instant.now().plusSeconds(REFRESH_TOKEN_EXPIRATION/100), whenStored); // 7 days
+        refreshTokenIndex.rotated(userId, sessionId);
+    }
+
+    // Ends only the session the refresh token belongs to; the access token, when sent, is revoked by its jti too
+    @Transactional
+    public void logout(String refreshToken, String accessToken) {
+        RefreshToken storedRefreshToken = refreshTokenRepository.findByToken(refreshToken)
+                .orElseThrow(() -> new RuntimeException("Refresh token not found in database"));
+        User user = storedRefreshToken.getUser();
+        String sessionId = storedRefreshToken.getSessionId() != null
+                ? storedRefreshToken.getSessionId() : JwtService.DEFAULT_SESSION_ID;
+        refreshTokenRepository.delete(storedRefreshToken);
+        refreshTokenIndex.invalidate(user.getId(), sessionId);
+        accessTokenCache.revokeSession(user.getId(), sessionId);
+        if (accessToken != null) {
+            try {
+                VerifiedToken token = jwtService.verify(accessToken);
+                if (jwtService.isAccessToken(token) && user.getId().equals(jwtService.userIdOf(token))) {
+                    accessTokenCache.revokeToken(token, accessToken);
+                }
+            } catch (JwtException e) {
+                // Already expired or not ours; the session revocation above covers it
+            }
+        }
     }
 
     @Transactional
-    public void logout(String refreshToken) {
+    public void logoutAll(String refreshToken) {
         User user = refreshTokenRepository.findByToken(refreshToken)
                 .orElseThrow(() -> new RuntimeException("Refresh token not found in database"))
                 .getUser();
         refreshTokenRepository.deleteByUserId(user.getId());
-        accessTokenCache.invalidate(user.getEmail());
+        refreshTokenIndex.invalidateUser(user.getId());
+        accessTokenCache.invalidate(user.getId());
     }
 }
@@ -0,0 +1,52 @@
+package com.example.security.service;
+
+import com.example.security.model.TokenPrincipal;
+import com.example.security.model.User;
+import com.example.security.model.UserSnapshot;
+import com.example.security.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Service;
+
+import java.util.Optional;
+
+// Loads the full User for the current request only when a caller actually asks for it
+@Service
+public class CurrentUserService {
+    @Autowired
+    private UserRepository userRepository;
+
+    public Optional<Integer> getCurrentUserId() {
+        Object principal = currentPrincipal();
+        if (principal instanceof TokenPrincipal tokenPrincipal) {
+            return Optional.ofNullable(tokenPrincipal.getId());
+        }
+        if (principal instanceof UserSnapshot snapshot) {
+            return Optional.ofNullable(snapshot.getId());
+        }
+        if (principal instanceof User user) {
+            return Optional.ofNullable(user.getId());
+        }
+        return Optional.empty();
+    }
+
+    public User getCurrentUser() {
+        Object principal = currentPrincipal();
+        if (principal instanceof User user) {
+            return user;
+        }
+        Optional<Integer> userId = getCurrentUserId();
+        if (userId.isPresent()) {
+            return userRepository.findById(userId.get())
+                    .orElseThrow(() -> new UsernameNotFoundException("User not found"));
+        }
+        throw new UsernameNotFoundException("No authenticated user");
+    }
+
+    private Object currentPrincipal() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication != null ? authentication.getPrincipal() : null;
+    }
+}
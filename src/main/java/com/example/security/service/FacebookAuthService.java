@@ -1,17 +1,23 @@
 package com.example.security.service;
 
+import com.example.security.cache.UserDetailsCache;
 import com.example.security.dto.request.FacebookAuthRequest;
 import com.example.security.dto.response.AuthenticationResponse;
 import com.example.security.dto.response.FacebookUserInfo;
 import com.example.security.enums.Role;
+import com.example.security.exception.ServiceOverloadedException;
 import com.example.security.model.User;
 import com.example.security.repository.UserRepository;
-import com.example.security.repository.RefreshTokenRepository;
-import com.example.security.model.RefreshToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
@@ -21,9 +27,17 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.client.RestTemplate;
 
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 @RequiredArgsConstructor
@@ -33,12 +47,13 @@ public class FacebookAuthService {
     private UserRepository userRepository;
     
     @Autowired
-    private RefreshTokenRepository refreshTokenRepository;
+    private AuthenticationService authenticationService;
     
     @Autowired
-    private JwtService jwtService;
+    private UserDetailsCache userDetailsCache;
     
     @Autowired
+    @Qualifier("facebookRestTemplate")
     private RestTemplate restTemplate;
     
     @Value("${facebook.oauth2.app-id}")
@@ -47,11 +62,49 @@ public class FacebookAuthService {
     @Value("${facebook.oauth2.app-secret}")
     private String facebookAppSecret;
     
+    // Threads for the outbound Graph API calls; two per login
+    @Value("${facebook.oauth2.threads:16}")
+    private int FACEBOOK_THREADS;
+
+    @Value("${facebook.oauth2.queue-capacity:64}")
+    private int FACEBOOK_QUEUE_CAPACITY;
+
+    // Deadline for both Graph API calls together
+    @Value("${facebook.oauth2.timeout-ms:5000}")
+    private long FACEBOOK_TIMEOUT_MS;
+
+    @Value("${facebook.oauth2.retry-after-seconds:2}")
+    private long FACEBOOK_RETRY_AFTER_SECONDS;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
     private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private ThreadPoolExecutor executor;
     
     private static final String FACEBOOK_USER_INFO_URL = "https://graph.facebook.com/me?fields=id,name,email,first_name,last_name,picture";
     private static final String FACEBOOK_TOKEN_VERIFY_URL = "https://graph.facebook.com/debug_token";
     
+    @PostConstruct
+    public void init() {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "facebook-auth-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = new ThreadPoolExecutor(FACEBOOK_THREADS, FACEBOOK_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, FACEBOOK_QUEUE_CAPACITY)), threadFactory,
+                new ThreadPoolExecutor.AbortPolicy());
+        new ExecutorServiceMetrics(executor, "facebook-auth", Tags.empty()).bindTo(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+    
     @Transactional
     public AuthenticationResponse authenticateWithFacebook(FacebookAuthRequest request) {
         try {
@@ -61,37 +114,40 @@ public class FacebookAuthService {
             // 2. Find or create user
             User user = findOrCreateUser(facebookUserInfo);
 
-            // 3. Xóa refresh token cũ của user
-            refreshTokenRepository.deleteByUserId(user.getId());
-
-            // 4. Generate JWT tokens
-            String accessToken = jwtService.generateAccessToken(user);
-            String refreshToken = jwtService.generateRefreshToken(user);
-
-            // 5. Lưu refresh token mới vào database
-            RefreshToken refreshTokenEntity = RefreshToken.builder()
-                .token(refreshToken)
-                .user(user)
-                .expiryDate(Instant.now().plus(7, ChronoUnit.DAYS))
-                .build();
-            refreshTokenRepository.save(refreshTokenEntity);
-
-            return AuthenticationResponse.builder()
-                    .accessToken(accessToken)
-                    .refreshToken(refreshToken)
-                    .build();
+            // 3. Tạo session mới: access token, refresh token (thay thế refresh token cũ của cùng thiết bị)
+            return authenticationService.issueTokens(user, request.getDeviceId());
 
+        } catch (ServiceOverloadedException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Facebook authentication failed: " + e.getMessage());
         }
     }
     
+    // debug_token and /me run at the same time on the bounded pool and share one deadline; the profile is only used
+    // once debug_token has accepted the token
     private FacebookUserInfo validateFacebookToken(String accessToken) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FACEBOOK_TIMEOUT_MS);
+        Future<?> verification = submit(() -> verifyFacebookToken(accessToken));
+        Future<FacebookUserInfo> profile;
         try {
-            // First, verify the token is valid
-            verifyFacebookToken(accessToken);
-            
-            // Then, get user info from Facebook Graph API
+            profile = submit(() -> fetchFacebookProfile(accessToken));
+        } catch (ServiceOverloadedException e) {
+            verification.cancel(true);
+            throw e;
+        }
+        try {
+            await(verification, deadline);
+            return await(profile, deadline);
+        } finally {
+            verification.cancel(true);
+            profile.cancel(true);
+        }
+    }
+
+    private FacebookUserInfo fetchFacebookProfile(String accessToken) {
+        try {
+            // Get user info from Facebook Graph API
             HttpHeaders headers = new HttpHeaders();
             HttpEntity<String> entity = new HttpEntity<>(headers);
             
@@ -121,10 +177,43 @@ public class FacebookAuthService {
                     .emailVerified(userInfo.has("email") && !userInfo.get("email").isNull())
                     .build();
                     
+        } catch (ServiceOverloadedException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Failed to validate Facebook token: " + e.getMessage());
         }
     }
+
+    private <T> Future<T> submit(Callable<T> call) {
+        try {
+            return executor.submit(call);
+        } catch (RejectedExecutionException e) {
+            throw new ServiceOverloadedException("Hệ thống đang quá tải. Vui lòng thử lại sau", FACEBOOK_RETRY_AFTER_SECONDS);
+        }
+    }
+
+    private Future<?> submit(Runnable call) {
+        return submit(() -> {
+            call.run();
+            return null;
+        });
+    }
+
+    private static <T> T await(Future<T> future, long deadline) {
+        try {
+            return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new RuntimeException("Facebook did not respond in time");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while calling Facebook", e);
+        }
+    }
     
     private void verifyFacebookToken(String accessToken) {
         try {
@@ -154,6 +243,8 @@ public class FacebookAuthService {
                 throw new RuntimeException("Facebook token app ID does not match");
             }
             
+        } catch (ServiceOverloadedException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Failed to verify Facebook token: " + e.getMessage());
         }
@@ -181,6 +272,7 @@ public class FacebookAuthService {
                     user.setProfilePicture(facebookUserInfo.getProfilePicture());
                 }
                 user.setEmailVerified(facebookUserInfo.isEmailVerified());
+                userDetailsCache.invalidate(user);
                 return userRepository.save(user);
             }
         }
@@ -197,6 +289,7 @@ public class FacebookAuthService {
                 .role(Role.USER)
                 .build();
         
+        userDetailsCache.invalidate(newUser);
         return userRepository.save(newUser);
     }
 }
@@ -1,23 +1,20 @@
 package com.example.security.service;
 
+import com.example.security.cache.UserDetailsCache;
 import com.example.security.dto.request.GoogleAuthRequest;
 import com.example.security.dto.response.AuthenticationResponse;
 import com.example.security.dto.response.GoogleUserInfo;
 import com.example.security.enums.Role;
+import com.example.security.exception.ServiceOverloadedException;
 import com.example.security.model.User;
 import com.example.security.repository.UserRepository;
-import com.example.security.repository.RefreshTokenRepository;
-import com.example.security.model.RefreshToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
 import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken.Payload;
-import com.google.api.client.googleapis.auth.oauth2.GoogleIdTokenVerifier;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.google.api.client.json.gson.GsonFactory;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
@@ -26,9 +23,6 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.client.RestTemplate;
 
-import java.time.Instant;
-import java.time.temporal.ChronoUnit;
-import java.util.Collections;
 import java.util.Optional;
 
 @Service
@@ -39,16 +33,17 @@ public class GoogleAuthService {
     private UserRepository userRepository;
     
     @Autowired
-    private RefreshTokenRepository refreshTokenRepository;
+    private AuthenticationService authenticationService;
     
     @Autowired
-    private JwtService jwtService;
+    private UserDetailsCache userDetailsCache;
     
     @Autowired
+    @Qualifier("googleRestTemplate")
     private RestTemplate restTemplate;
     
-    @Value("${google.oauth2.client-id}")
-    private String googleClientId;
+    @Autowired
+    private GoogleTokenVerifier googleTokenVerifier;
     
     private final ObjectMapper objectMapper = new ObjectMapper();
     
@@ -63,26 +58,11 @@ public class GoogleAuthService {
             // 2. Find or create user
             User user = findOrCreateUser(googleUserInfo);
 
-            // 3. Xóa refresh token cũ của user
-            refreshTokenRepository.deleteByUserId(user.getId());
-
-            // 4. Generate JWT tokens
-            String accessToken = jwtService.generateAccessToken(user);
-            String refreshToken = jwtService.generateRefreshToken(user);
-
-            // 5. Lưu refresh token mới vào database
-            RefreshToken refreshTokenEntity = RefreshToken.builder()
-                .token(refreshToken)
-                .user(user)
-                .expiryDate(Instant.now().plus(7, ChronoUnit.DAYS))
-                .build();
-            refreshTokenRepository.save(refreshTokenEntity);
-
-            return AuthenticationResponse.builder()
-                    .accessToken(accessToken)
-                    .refreshToken(refreshToken)
-                    .build();
+            // 3. Tạo session mới: access token, refresh token (thay thế refresh token cũ của cùng thiết bị)
+            return authenticationService.issueTokens(user, request.getDeviceId());
 
+        } catch (ServiceOverloadedException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Google authentication failed: " + e.getMessage());
         }
@@ -90,12 +70,8 @@ public class GoogleAuthService {
     
     private GoogleUserInfo validateGoogleToken(String idToken) {
         try {
-            // Method 1: Use Google API client library for proper JWT validation
-            GoogleIdTokenVerifier verifier = new GoogleIdTokenVerifier.Builder(new NetHttpTransport(), new GsonFactory())
-                    .setAudience(Collections.singletonList(googleClientId))
-                    .build();
-            
-            GoogleIdToken googleIdToken = verifier.verify(idToken);
+            // Method 1: Use Google API client library for proper JWT validation (keys cached by GoogleTokenVerifier)
+            GoogleIdToken googleIdToken = googleTokenVerifier.verify(idToken);
             if (googleIdToken != null) {
                 Payload payload = googleIdToken.getPayload();
                 
@@ -115,6 +91,8 @@ public class GoogleAuthService {
             // Fallback method: Use Google userinfo endpoint
             try {
                 return validateGoogleTokenViaUserInfo(idToken);
+            } catch (ServiceOverloadedException overloaded) {
+                throw overloaded;
             } catch (Exception fallbackException) {
                 throw new RuntimeException("Failed to validate Google token: " + e.getMessage() + " | Fallback failed: " + fallbackException.getMessage());
             }
@@ -148,6 +126,8 @@ public class GoogleAuthService {
                     .emailVerified(userInfo.get("email_verified").asBoolean())
                     .build();
                     
+        } catch (ServiceOverloadedException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Failed to validate Google token via userinfo endpoint: " + e.getMessage());
         }
@@ -172,6 +152,7 @@ public class GoogleAuthService {
             user.setProvider("GOOGLE");
             user.setProfilePicture(googleUserInfo.getProfilePicture());
             user.setEmailVerified(googleUserInfo.isEmailVerified());
+            userDetailsCache.invalidate(user);
             return userRepository.save(user);
         }
         
@@ -187,6 +168,7 @@ public class GoogleAuthService {
                 .role(Role.USER)
                 .build();
         
+        userDetailsCache.invalidate(newUser);
         return userRepository.save(newUser);
     }
 } 
\ No newline at end of file
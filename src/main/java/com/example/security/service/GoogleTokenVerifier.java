@@ -0,0 +1,134 @@
+package com.example.security.service;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.example.security.http.ProviderHttpClient;
+import com.example.security.http.ProviderHttpTransport;
+
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdToken;
+import com.google.api.client.googleapis.auth.oauth2.GoogleIdTokenVerifier;
+import com.google.api.client.googleapis.auth.oauth2.GoogleOAuthConstants;
+import com.google.api.client.googleapis.auth.oauth2.GooglePublicKeysManager;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+// One Google ID token verifier for the whole application, so Google's signing certificates are fetched once per
+// cache period instead of on every login. A background thread fetches them again refresh-ahead-seconds before
+// they expire, which keeps verification local CPU work. The fetch goes into a new key manager that is swapped in
+// only when it succeeds: GooglePublicKeysManager.refresh() empties its key list before fetching, so refreshing the
+// one in use would fail logins while the fetch runs, or until the next one if it fails.
+@Slf4j
+@Component
+public class GoogleTokenVerifier {
+    @Value("${google.oauth2.client-id}")
+    private String googleClientId;
+
+    // Can point at a local key server in tests
+    @Value("${google.oauth2.certs-url:" + GoogleOAuthConstants.DEFAULT_PUBLIC_CERTS_ENCODED_URL + "}")
+    private String CERTS_URL;
+
+    // More than the library's own 5 minute skew, so a login never ends up fetching the keys itself
+    @Value("${google.oauth2.certs-refresh-ahead-seconds:600}")
+    private long REFRESH_AHEAD_SECONDS;
+
+    @Value("${google.oauth2.certs-check-interval-ms:30000}")
+    private long CHECK_INTERVAL_MS;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Fetches go through Google's pooled client, with its timeouts and circuit breaker
+    @Autowired
+    private ProviderHttpClient googleHttpClient;
+
+    private HttpTransport transport;
+    private final JsonFactory jsonFactory = GsonFactory.getDefaultInstance();
+
+    private volatile GooglePublicKeysManager publicKeys;
+    private volatile GoogleIdTokenVerifier verifier;
+    private ScheduledExecutorService executor;
+    private Timer fetchTime;
+    private Counter fetchFailures;
+
+    @PostConstruct
+    public void init() {
+        fetchTime = Timer.builder("google.certs.fetch").register(meterRegistry);
+        fetchFailures = Counter.builder("google.certs.fetch.failures").register(meterRegistry);
+        transport = new ProviderHttpTransport(googleHttpClient);
+
+        // Until the first fetch succeeds, the library fetches the keys on the first login
+        use(newKeyManager());
+        Gauge.builder("google.certs.expires-in-seconds", this,
+                        v -> (v.publicKeys.getExpirationTimeMilliseconds() - System.currentTimeMillis()) / 1000.0)
+                .register(meterRegistry);
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "google-certs");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::refreshIfExpiring, 0, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // Null if the token is not a valid Google ID token for our client id
+    public GoogleIdToken verify(String idToken) throws GeneralSecurityException, IOException {
+        return verifier.verify(idToken);
+    }
+
+    private void refreshIfExpiring() {
+        long refreshAt = publicKeys.getExpirationTimeMilliseconds() - TimeUnit.SECONDS.toMillis(REFRESH_AHEAD_SECONDS);
+        if (System.currentTimeMillis() < refreshAt) {
+            return;
+        }
+        GooglePublicKeysManager fetched = newKeyManager();
+        long started = System.nanoTime();
+        try {
+            fetched.refresh();
+        } catch (GeneralSecurityException | IOException | RuntimeException e) {
+            // Retried on the next check; the current keys stay in use
+            fetchFailures.increment();
+            log.warn("Could not fetch Google certificates from {}: {}", CERTS_URL, e.getMessage());
+            return;
+        } finally {
+            fetchTime.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+        use(fetched);
+        log.debug("Fetched Google certificates, valid for {} s",
+                (fetched.getExpirationTimeMilliseconds() - System.currentTimeMillis()) / 1000);
+    }
+
+    private GooglePublicKeysManager newKeyManager() {
+        return new GooglePublicKeysManager.Builder(transport, jsonFactory)
+                .setPublicCertsEncodedUrl(CERTS_URL)
+                .build();
+    }
+
+    private void use(GooglePublicKeysManager keys) {
+        verifier = new GoogleIdTokenVerifier.Builder(keys)
+                .setAudience(List.of(googleClientId))
+                .build();
+        publicKeys = keys;
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.security.service;
+
+import com.example.security.jwt.JwtKeyRegistry;
+import com.example.security.jwt.JwtSigningKey;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Publishes the public halves of our asymmetric signing keys so other services can verify tokens locally.
+// The JSON and its ETag are rebuilt only when the key registry changes.
+@Service
+public class JwksService {
+    @Autowired
+    private JwtKeyRegistry keyRegistry;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private volatile JwkSet cached;
+
+    public JwkSet currentKeySet() {
+        JwkSet current = cached;
+        long version = keyRegistry.version();
+        if (current == null || current.version() != version) {
+            current = build(version);
+            cached = current;
+        }
+        return current;
+    }
+
+    private JwkSet build(long version) {
+        List<Map<String, Object>> keys = new ArrayList<>();
+        for (JwtSigningKey key : keyRegistry.activeKeys().values()) {
+            if (key.getVerificationKey() instanceof RSAPublicKey rsa) {
+                Map<String, Object> jwk = jwk(key, "RSA");
+                jwk.put("n", base64Url(unsigned(rsa.getModulus())));
+                jwk.put("e", base64Url(unsigned(rsa.getPublicExponent())));
+                keys.add(jwk);
+            } else if (key.getVerificationKey() instanceof ECPublicKey ec) {
+                int size = (ec.getParams().getCurve().getField().getFieldSize() + 7) / 8;
+                Map<String, Object> jwk = jwk(key, "EC");
+                jwk.put("crv", "P-" + ec.getParams().getCurve().getField().getFieldSize());
+                jwk.put("x", base64Url(fixedLength(ec.getW().getAffineX(), size)));
+                jwk.put("y", base64Url(fixedLength(ec.getW().getAffineY(), size)));
+                keys.add(jwk);
+            }
+        }
+
+        try {
+            String json = objectMapper.writeValueAsString(Map.of("keys", keys));
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(json.getBytes(StandardCharsets.UTF_8));
+            String etag = "\"" + base64Url(Arrays.copyOf(digest, 16)) + "\"";
+            return new JwkSet(version, json, etag);
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Failed to build JWKS document", e);
+        }
+    }
+
+    private static Map<String, Object> jwk(JwtSigningKey key, String keyType) {
+        Map<String, Object> jwk = new LinkedHashMap<>();
+        jwk.put("kty", keyType);
+        jwk.put("kid", key.getKeyId());
+        jwk.put("use", "sig");
+        jwk.put("alg", key.getAlgorithm().getValue());
+        return jwk;
+    }
+
+    private static byte[] unsigned(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        return bytes.length > 1 && bytes[0] == 0 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes;
+    }
+
+    private static byte[] fixedLength(BigInteger value, int length) {
+        byte[] bytes = unsigned(value);
+        if (bytes.length == length) {
+            return bytes;
+        }
+        byte[] padded = new byte[length];
+        System.arraycopy(bytes, 0, padded, length - bytes.length, bytes.length);
+        return padded;
+    }
+
+    private static String base64Url(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    public record JwkSet(long version, String json, String etag) {
+    }
+}
@@ -1,25 +1,72 @@
 package com.example.security.service;
 
+import com.example.security.cache.VerifiedTokenCache;
+import com.example.security.jwt.FastJwtVerifier;
+import com.example.security.jwt.JwtKeyRegistry;
+import com.example.security.jwt.JwtMinter;
+import com.example.security.jwt.JwtSigningKey;
+import com.example.security.jwt.VerifiedToken;
+import com.example.security.enums.Role;
+import com.example.security.model.TokenPrincipal;
+import com.example.security.model.User;
+import com.example.security.model.UserSnapshot;
+
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtException;
 import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.SignatureAlgorithm;
-import io.jsonwebtoken.io.Decoders;
-import io.jsonwebtoken.security.Keys;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
-import java.security.Key;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.Base64;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.regex.Pattern;
 
 @Service
 public class JwtService {
-    @Value("${jwt.secret}")
-    private String SECRET_KEY;
+    @Autowired
+    private JwtKeyRegistry keyRegistry;
+    @Autowired
+    private VerifiedTokenCache verifiedTokenCache;
+    @Autowired
+    private FastJwtVerifier fastJwtVerifier;
+    @Autowired
+    private JwtMinter jwtMinter;
+
+    @Value("${jwt.fast-path.enabled:true}")
+    private boolean FAST_PATH_ENABLED;
+
+    @Value("${jwt.fast-mint.enabled:true}")
+    private boolean FAST_MINT_ENABLED;
+
+    // Put uid/role into access tokens so the filter can skip the user lookup
+    @Value("${jwt.stateless-principal.enabled:false}")
+    private boolean STATELESS_PRINCIPAL_ENABLED;
+
+    // Put a jti into access tokens so a single token can be revoked (see TokenDenylist)
+    @Value("${token-denylist.enabled:false}")
+    private boolean DENYLIST_ENABLED;
+
+    private static final String USER_ID_CLAIM = "uid";
+    private static final String ROLE_CLAIM = "role";
+    private static final String SESSION_ID_CLAIM = "sid";
+    private static final String TOKEN_ID_CLAIM = "jti";
+    // Keeps a refresh token from being accepted as a bearer token and the other way round
+    private static final String TOKEN_TYPE_CLAIM = "typ";
+    private static final String ACCESS_TOKEN_TYPE = "access";
+    private static final String REFRESH_TOKEN_TYPE = "refresh";
+    // Session of tokens issued before the sid claim existed
+    public static final String DEFAULT_SESSION_ID = "default";
+    private static final Pattern DEVICE_ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    private final SecureRandom secureRandom = new SecureRandom();
 
     @Value("${token.access-token-expiration}")
     private long ACCESS_TOKEN_EXPIRATION;
@@ -27,38 +74,185 @@ public class JwtService {
     @Value("${token.refresh-token-expiration}")
     private long REFRESH_TOKEN_EXPIRATION;
 
+    // Goes through verify(), so it takes the same fast path and cache as the request filter
     public String extractUsername(String token) {
-        return extractClaim(token, Claims::getSubject);
+        return verify(token).getSubject();
+    }
+
+    // Verifies the signature and parses the payload once; throws JwtException if the token is invalid or expired
+    public VerifiedToken verify(String token) {
+        VerifiedToken verified = verifiedTokenCache.get(token, this::parseAndVerify);
+        // A cached token may have been signed with a key that was retired since
+        if (!keyRegistry.isAccepted(verified.getKeyId())) {
+            verifiedTokenCache.invalidate(token);
+            throw new JwtException("Unknown or retired signing key: " + verified.getKeyId());
+        }
+        return verified;
     }
 
-    public <T> T extractClaim(String token, Function<Claims,T> claimsResolver) {
-        final Claims claims = extractAllClaims(token);
-        return claimsResolver.apply(claims);
+    private VerifiedToken parseAndVerify(String token) {
+        if (FAST_PATH_ENABLED) {
+            VerifiedToken verified = fastJwtVerifier.verify(token);
+            if (verified != null) {
+                return verified;
+            }
+        }
+        Jws<Claims> jws = keyRegistry.parser().parseClaimsJws(token);
+        return VerifiedToken.from(jws.getHeader().getKeyId(), jws.getBody());
     }
 
     public String generateAccessToken(UserDetails userDetails) {
-        return generateToken(new HashMap<>(), userDetails, ACCESS_TOKEN_EXPIRATION);
+        return generateToken(accessClaims(Map.of(), userDetails), userDetails, ACCESS_TOKEN_EXPIRATION);
     }
 
     public String generateRefreshToken(UserDetails userDetails) {
-        return generateToken(new HashMap<>(), userDetails, REFRESH_TOKEN_EXPIRATION);
+        return generateToken(refreshClaims(Map.of(), userDetails), userDetails, REFRESH_TOKEN_EXPIRATION);
+    }
+
+    public String generateAccessToken(UserDetails userDetails, String sessionId) {
+        return generateAccessToken(Map.of(SESSION_ID_CLAIM, sessionId), userDetails);
+    }
+
+    public String generateRefreshToken(UserDetails userDetails, String sessionId) {
+        return generateRefreshToken(Map.of(SESSION_ID_CLAIM, sessionId), userDetails);
+    }
+
+    // A client-supplied device id keeps one session per device; otherwise every login is its own session
+    public String newSessionId(String deviceId) {
+        if (deviceId != null && DEVICE_ID.matcher(deviceId).matches()) {
+            return deviceId;
+        }
+        return randomId();
+    }
+
+    public String tokenIdOf(VerifiedToken token) {
+        return token.getClaim(TOKEN_ID_CLAIM, String.class);
+    }
+
+    public String sessionIdOf(VerifiedToken token) {
+        String sessionId = token.getClaim(SESSION_ID_CLAIM, String.class);
+        return sessionId != null ? sessionId : DEFAULT_SESSION_ID;
     }
 
     public String generateAccessToken(Map<String, Object> extraClaims, UserDetails userDetails) {
-        return generateToken(extraClaims, userDetails, ACCESS_TOKEN_EXPIRATION);
+        return generateToken(accessClaims(extraClaims, userDetails), userDetails, ACCESS_TOKEN_EXPIRATION);
     }
 
     public String generateRefreshToken(Map<String, Object> extraClaims, UserDetails userDetails) {
-        return generateToken(extraClaims, userDetails, REFRESH_TOKEN_EXPIRATION);
+        return generateToken(refreshClaims(extraClaims, userDetails), userDetails, REFRESH_TOKEN_EXPIRATION);
+    }
+
+    // Tokens issued before the typ claim are told apart by their lifetime: one no longer than an access token's is
+    // an access token. No typ-less tokens are minted any more, so these are all gone one access TTL after the deploy.
+    public boolean isAccessToken(VerifiedToken token) {
+        String type = token.getClaim(TOKEN_TYPE_CLAIM, String.class);
+        return type != null ? ACCESS_TOKEN_TYPE.equals(type) : isLegacyAccessToken(token);
+    }
+
+    public boolean isRefreshToken(VerifiedToken token) {
+        String type = token.getClaim(TOKEN_TYPE_CLAIM, String.class);
+        return type != null ? REFRESH_TOKEN_TYPE.equals(type) : !isLegacyAccessToken(token);
+    }
+
+    private boolean isLegacyAccessToken(VerifiedToken token) {
+        Instant issuedAt = token.getIssuedAt();
+        Instant expiresAt = token.getExpiresAt();
+        return issuedAt != null && expiresAt != null
+                && expiresAt.toEpochMilli() - issuedAt.toEpochMilli() <= ACCESS_TOKEN_EXPIRATION;
+    }
+
+    public Integer userIdOf(VerifiedToken token) {
+        Number userId = token.getClaim(USER_ID_CLAIM, Number.class);
+        return userId != null ? userId.intValue() : null;
+    }
+
+    public boolean isStatelessPrincipalEnabled() {
+        return STATELESS_PRINCIPAL_ENABLED;
+    }
+
+    // Null when the token was issued without uid/role (mode off at the time, or an older token)
+    public TokenPrincipal toPrincipal(VerifiedToken token) {
+        Number userId = token.getClaim(USER_ID_CLAIM, Number.class);
+        String role = token.getClaim(ROLE_CLAIM, String.class);
+        if (userId == null || role == null || token.getSubject() == null) {
+            return null;
+        }
+        return new TokenPrincipal(userId.intValue(), token.getSubject(), Role.valueOf(role));
+    }
+
+    // uid is always present so AccessTokenCache can key sessions by it; role only in stateless mode, jti only
+    // in denylist mode
+    private Map<String, Object> accessClaims(Map<String, Object> extraClaims, UserDetails userDetails) {
+        Map<String, Object> claims = new LinkedHashMap<>(extraClaims);
+        claims.put(TOKEN_TYPE_CLAIM, ACCESS_TOKEN_TYPE);
+        Integer userId = idOf(userDetails);
+        if (userId == null) {
+            return claims;
+        }
+        claims.put(USER_ID_CLAIM, userId);
+        Role role = roleOf(userDetails);
+        if (STATELESS_PRINCIPAL_ENABLED && role != null) {
+            claims.put(ROLE_CLAIM, role.name());
+        }
+        if (DENYLIST_ENABLED) {
+            claims.put(TOKEN_ID_CLAIM, randomId());
+        }
+        return claims;
+    }
+
+    // uid lets RefreshTokenIndex find the session without a lookup by email
+    private Map<String, Object> refreshClaims(Map<String, Object> extraClaims, UserDetails userDetails) {
+        Map<String, Object> claims = new LinkedHashMap<>(extraClaims);
+        claims.put(TOKEN_TYPE_CLAIM, REFRESH_TOKEN_TYPE);
+        Integer userId = idOf(userDetails);
+        if (userId != null) {
+            claims.put(USER_ID_CLAIM, userId);
+        }
+        return claims;
+    }
+
+    private static Integer idOf(UserDetails userDetails) {
+        if (userDetails instanceof User user) {
+            return user.getId();
+        }
+        if (userDetails instanceof UserSnapshot snapshot) {
+            return snapshot.getId();
+        }
+        return null;
+    }
+
+    private static Role roleOf(UserDetails userDetails) {
+        if (userDetails instanceof User user) {
+            return user.getRole();
+        }
+        if (userDetails instanceof UserSnapshot snapshot) {
+            return snapshot.getRole();
+        }
+        return null;
+    }
+
+    private String randomId() {
+        byte[] random = new byte[12];
+        secureRandom.nextBytes(random);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(random);
     }
 
     private String generateToken(Map<String, Object> extraClaims, UserDetails userDetails, long expiration) {
+        JwtSigningKey key = keyRegistry.currentKey();
+        long now = System.currentTimeMillis();
+        if (FAST_MINT_ENABLED) {
+            String token = jwtMinter.mint(key, extraClaims, userDetails.getUsername(), now, now + expiration);
+            if (token != null) {
+                return token;
+            }
+        }
         return Jwts.builder()
+                .setHeaderParam("kid", key.getKeyId())
                 .setClaims(extraClaims)
                 .setSubject(userDetails.getUsername())
-                .setIssuedAt(new Date(System.currentTimeMillis()))
-                .setExpiration(new Date(System.currentTimeMillis() + expiration))
-                .signWith(getSignInKey(), SignatureAlgorithm.HS256)
+                .setIssuedAt(new Date(now))
+                .setExpiration(new Date(now + expiration))
+                .signWith(key.getSigningKey(), key.getAlgorithm())
                 .compact();
     }
 
@@ -72,8 +266,12 @@ public class JwtService {
     }
 
     public boolean isTokenValid(String token, UserDetails userDetails) {
-        final String username = extractUsername(token);
-        return (username.equals(userDetails.getUsername()) && !isTokenExpired(token));
+        return isTokenValid(verify(token), userDetails);
+    }
+
+    public boolean isTokenValid(VerifiedToken token, UserDetails userDetails) {
+        final String username = token.getSubject();
+        return (username != null && username.equals(userDetails.getUsername()) && !token.isExpired());
     }
 
     public boolean isTokenExpired(String token) {
@@ -81,20 +279,7 @@ public class JwtService {
     }
 
     public Date extractExpiration(String token) {
-        return extractClaim(token, Claims::getExpiration);
-    }
-
-    private Claims extractAllClaims(String token) {
-        return Jwts
-                .parserBuilder()
-                .setSigningKey(getSignInKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
-    }
-
-    private Key getSignInKey() {
-        byte[] keyBytes = Decoders.BASE64.decode(SECRET_KEY);
-        return Keys.hmacShaKeyFor(keyBytes);
+        Instant expiresAt = verify(token).getExpiresAt();
+        return expiresAt != null ? Date.from(expiresAt) : null;
     }
 }
@@ -0,0 +1,249 @@
+package com.example.security.service;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+// Deletes expired refresh tokens continuously in small batches instead of one nightly DELETE. Each batch is its
+// own short transaction that walks the expiry_date index from a saved keyset position, so it never rescans rows
+// it already deleted (InnoDB keeps those in the index until purge catches up) and a restart resumes where the
+// last batch committed. Batches are spaced so the purge uses at most max-duty-cycle of the time and
+// max-rows-per-second, which keeps lock time and replication lag flat. Only the node holding the lease in
+// maintenance_leases purges; the others retry every interval and take over once the lease runs out.
+@Slf4j
+@Component
+public class RefreshTokenPurger {
+    private static final String JOB = "refresh-token-purge";
+    // Upper bound of the backlog count, so measuring it stays cheap when the purge is far behind
+    private static final int BACKLOG_COUNT_LIMIT = 100_000;
+
+    private static final String RENEW_LEASE_SQL = "UPDATE maintenance_leases SET owner = ?, lease_until = ? "
+            + "WHERE name = ? AND (owner = ? OR lease_until < ?)";
+    private static final String INSERT_LEASE_SQL = "INSERT IGNORE INTO maintenance_leases (name, owner, lease_until) "
+            + "VALUES (?, ?, ?)";
+    private static final String RELEASE_LEASE_SQL = "UPDATE maintenance_leases SET lease_until = 0 "
+            + "WHERE name = ? AND owner = ?";
+    private static final String READ_CURSOR_SQL = "SELECT cursor_expiry_date, cursor_id FROM maintenance_leases "
+            + "WHERE name = ?";
+    private static final String SAVE_CURSOR_SQL = "UPDATE maintenance_leases SET cursor_expiry_date = ?, cursor_id = ? "
+            + "WHERE name = ?";
+    private static final String SELECT_EXPIRED_SQL = "SELECT id, expiry_date FROM refresh_tokens "
+            + "WHERE expiry_date < ? AND (expiry_date > ? OR (expiry_date = ? AND id > ?)) "
+            + "ORDER BY expiry_date, id LIMIT ?";
+    private static final String COUNT_BACKLOG_SQL = "SELECT COUNT(*) FROM "
+            + "(SELECT 1 FROM refresh_tokens WHERE expiry_date < ? LIMIT " + BACKLOG_COUNT_LIMIT + ") expired";
+
+    @Value("${refresh-token-purge.enabled:true}")
+    private boolean ENABLED;
+
+    @Value("${refresh-token-purge.batch-size:1000}")
+    private int BATCH_SIZE;
+
+    // Pause between passes once nothing is left to delete
+    @Value("${refresh-token-purge.interval-ms:60000}")
+    private long INTERVAL_MS;
+
+    // Share of wall time spent inside delete transactions while catching up
+    @Value("${refresh-token-purge.max-duty-cycle:0.2}")
+    private double MAX_DUTY_CYCLE;
+
+    @Value("${refresh-token-purge.max-rows-per-second:5000}")
+    private int MAX_ROWS_PER_SECOND;
+
+    // Must be longer than interval-ms so the owner keeps the lease while idle
+    @Value("${refresh-token-purge.lease-seconds:180}")
+    private long LEASE_SECONDS;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private record Cursor(Instant expiryDate, long id) {
+        static final Cursor START = new Cursor(Instant.EPOCH, 0);
+    }
+
+    private record Row(long id, Instant expiryDate) {
+    }
+
+    private final String owner = UUID.randomUUID().toString();
+    private final AtomicLong backlogRows = new AtomicLong();
+    private final AtomicLong backlogSeconds = new AtomicLong();
+    private volatile boolean leader;
+    private ScheduledExecutorService executor;
+    private TransactionTemplate transactionTemplate;
+    private Counter deleted;
+    private Timer batchTime;
+
+    @PostConstruct
+    public void init() {
+        if (!ENABLED) {
+            log.info("Refresh token purge is disabled");
+            return;
+        }
+        // Zero would stall the purge after its first batch, and anything else outside (0, 1] gives a negative pause
+        if (!(MAX_DUTY_CYCLE > 0 && MAX_DUTY_CYCLE <= 1)) {
+            throw new IllegalStateException("refresh-token-purge.max-duty-cycle must be in (0, 1], was " + MAX_DUTY_CYCLE);
+        }
+        // A batch of zero rows would never finish a pass
+        if (BATCH_SIZE <= 0) {
+            throw new IllegalStateException("refresh-token-purge.batch-size must be positive, was " + BATCH_SIZE);
+        }
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        deleted = Counter.builder("refresh-token-purge.deleted").register(meterRegistry);
+        batchTime = Timer.builder("refresh-token-purge.batch").register(meterRegistry);
+        Gauge.builder("refresh-token-purge.backlog.rows", backlogRows, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("refresh-token-purge.backlog.seconds", backlogSeconds, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("refresh-token-purge.leader", this, purger -> purger.leader ? 1 : 0).register(meterRegistry);
+
+        // Its own thread: pacing sleeps between batches and must not hold up the shared @Scheduled thread
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, JOB);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.schedule(this::pass, INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        if (leader) {
+            // Let another node take over without waiting for the lease to run out
+            try {
+                jdbcTemplate.update(RELEASE_LEASE_SQL, JOB, owner);
+            } catch (RuntimeException e) {
+                log.warn("Could not release the {} lease: {}", JOB, e.getMessage());
+            }
+        }
+    }
+
+    // Purges until caught up, then schedules the next pass
+    private void pass() {
+        try {
+            Instant cutoff = Instant.now();
+            if (!acquireLease()) {
+                return;
+            }
+            backlogRows.set(countBacklog(cutoff));
+            int batches = 0;
+            long rows = 0;
+            int count;
+            do {
+                long started = System.nanoTime();
+                count = transactionTemplate.execute(status -> deleteBatch(cutoff));
+                long elapsedNanos = System.nanoTime() - started;
+                batchTime.record(elapsedNanos, TimeUnit.NANOSECONDS);
+                if (count < 0) {
+                    // Lost the lease mid-pass
+                    return;
+                }
+                deleted.increment(count);
+                long deletedRows = count;
+                backlogRows.updateAndGet(backlog -> Math.max(0, backlog - deletedRows));
+                batches++;
+                rows += count;
+                if (count == BATCH_SIZE) {
+                    TimeUnit.NANOSECONDS.sleep(pause(elapsedNanos, count));
+                }
+            } while (count == BATCH_SIZE && !Thread.currentThread().isInterrupted());
+            backlogSeconds.set(0);
+            if (rows > 0) {
+                log.info("Purged {} expired refresh tokens in {} batches", rows, batches);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.warn("Refresh token purge failed, retrying in {} ms: {}", INTERVAL_MS, e.getMessage());
+        } finally {
+            if (!executor.isShutdown()) {
+                executor.schedule(this::pass, INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    // Rows deleted, or -1 if this node no longer holds the lease. Runs in one transaction with the cursor update,
+    // so the saved position always matches what was deleted.
+    private int deleteBatch(Instant cutoff) {
+        if (!acquireLease()) {
+            return -1;
+        }
+        Cursor cursor = readCursor();
+        Timestamp from = Timestamp.from(cursor.expiryDate());
+        List<Row> expired = jdbcTemplate.query(SELECT_EXPIRED_SQL,
+                (rs, rowNum) -> new Row(rs.getLong(1), rs.getTimestamp(2).toInstant()),
+                Timestamp.from(cutoff), from, from, cursor.id(), BATCH_SIZE);
+        if (expired.isEmpty()) {
+            return 0;
+        }
+        String placeholders = String.join(",", Collections.nCopies(expired.size(), "?"));
+        jdbcTemplate.update("DELETE FROM refresh_tokens WHERE id IN (" + placeholders + ")",
+                expired.stream().map(Row::id).toArray());
+        Row last = expired.get(expired.size() - 1);
+        jdbcTemplate.update(SAVE_CURSOR_SQL, Timestamp.from(last.expiryDate()), last.id(), JOB);
+        backlogSeconds.set(Math.max(0, cutoff.getEpochSecond() - last.expiryDate().getEpochSecond()));
+        return expired.size();
+    }
+
+    // Takes or renews the lease
+    private boolean acquireLease() {
+        long now = System.currentTimeMillis();
+        long leaseUntil = now + TimeUnit.SECONDS.toMillis(LEASE_SECONDS);
+        boolean acquired = jdbcTemplate.update(RENEW_LEASE_SQL, owner, leaseUntil, JOB, owner, now) > 0
+                || jdbcTemplate.update(INSERT_LEASE_SQL, JOB, owner, leaseUntil) > 0;
+        if (acquired != leader) {
+            log.info(acquired ? "Took the {} lease" : "Lost the {} lease", JOB);
+            leader = acquired;
+        }
+        return acquired;
+    }
+
+    // Rows before the cursor are all gone, so a pass can start from it rather than from the oldest expiry
+    private Cursor readCursor() {
+        List<Cursor> cursors = jdbcTemplate.query(READ_CURSOR_SQL, (rs, rowNum) -> {
+            Timestamp expiryDate = rs.getTimestamp(1);
+            return expiryDate == null ? Cursor.START : new Cursor(expiryDate.toInstant(), rs.getLong(2));
+        }, JOB);
+        return cursors.isEmpty() ? Cursor.START : cursors.get(0);
+    }
+
+    private long countBacklog(Instant cutoff) {
+        Long count = jdbcTemplate.queryForObject(COUNT_BACKLOG_SQL, Long.class, Timestamp.from(cutoff));
+        return count != null ? count : 0;
+    }
+
+    // Wait after a full batch: long enough to stay under both the duty cycle and the row rate
+    private long pause(long elapsedNanos, int rows) {
+        long dutyCycleWait = (long) (elapsedNanos * (1 - MAX_DUTY_CYCLE) / MAX_DUTY_CYCLE);
+        long rateWait = TimeUnit.SECONDS.toNanos(rows) / Math.max(1, MAX_ROWS_PER_SECOND) - elapsedNanos;
+        return Math.max(dutyCycleWait, rateWait);
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.security.service;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.security.exception.ServiceOverloadedException;
+import com.example.security.model.RefreshToken;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+// Stores the refresh token of a login session with one upsert on (user_id, session_id) instead of a delete
+// followed by an insert. In "sync" mode the upsert runs in the caller's transaction. In "group-commit" mode
+// callers queue their row and wait while a single writer thread commits everything queued so far in one JDBC
+// batch, so concurrent logins share one round trip and one commit.
+// The caller passes what makes the login live (its access session) as whenStored, which runs only once the row is
+// durable: a login that times out or fails leaves no session behind, only at most an orphan row nobody holds.
+@Slf4j
+@Service
+public class RefreshTokenWriter {
+    private static final String UPSERT_SQL = "INSERT INTO refresh_tokens (user_id, session_id, token_hash, expiry_date) "
+            + "VALUES (?, ?, ?, ?) "
+            + "ON DUPLICATE KEY UPDATE token_hash = VALUES(token_hash), expiry_date = VALUES(expiry_date)";
+
+    // sync or group-commit
+    @Value("${refresh-token-writer.mode:sync}")
+    private String MODE;
+
+    @Value("${refresh-token-writer.batch-size:200}")
+    private int BATCH_SIZE;
+
+    // How long a login waits for its batch to commit before giving up with 503
+    @Value("${refresh-token-writer.timeout-ms:5000}")
+    private long TIMEOUT_MS;
+
+    @Value("${refresh-token-writer.retry-after-seconds:2}")
+    private long RETRY_AFTER_SECONDS;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private record PendingWrite(Integer userId, String sessionId, String token, Instant expiryDate,
+                                CompletableFuture<Void> committed) {
+    }
+
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private boolean groupCommit;
+    private volatile boolean running;
+    private Thread writer;
+    private TransactionTemplate transactionTemplate;
+    private TransactionTemplate afterCommitTemplate;
+    private DistributionSummary batchSizes;
+    private Timer commitTime;
+
+    @PostConstruct
+    public void init() {
+        groupCommit = switch (MODE.toLowerCase()) {
+            case "sync" -> false;
+            case "group-commit" -> true;
+            default -> throw new IllegalArgumentException("Unknown refresh-token-writer.mode: " + MODE);
+        };
+        if (!groupCommit) {
+            return;
+        }
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        afterCommitTemplate = new TransactionTemplate(transactionManager);
+        afterCommitTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        batchSizes = DistributionSummary.builder("refresh-token-writer.batch-size").register(meterRegistry);
+        commitTime = Timer.builder("refresh-token-writer.commit").register(meterRegistry);
+        running = true;
+        writer = new Thread(this::run, "refresh-token-writer");
+        writer.setDaemon(true);
+        writer.start();
+        log.info("Refresh token writer in group-commit mode, batches of up to {}", BATCH_SIZE);
+    }
+
+    public void upsert(Integer userId, String sessionId, String token, Instant expiryDate, Runnable whenStored) {
+        if (!groupCommit) {
+            jdbcTemplate.update(UPSERT_SQL, userId, sessionId, RefreshToken.hash(token), Timestamp.from(expiryDate));
+            whenStored.run();
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // The writer thread cannot see rows the caller has not committed yet (a user created by a first
+            // Google/Facebook login), and waiting for it while holding their locks would deadlock
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueueAndWait(userId, sessionId, token, expiryDate);
+                    // The caller's transaction is already committed, so whatever whenStored writes needs its own
+                    afterCommitTemplate.executeWithoutResult(status -> whenStored.run());
+                }
+            });
+        } else {
+            enqueueAndWait(userId, sessionId, token, expiryDate);
+            whenStored.run();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        if (writer != null) {
+            // The writer drains the queue before it exits
+            running = false;
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        }
+    }
+
+    private void enqueueAndWait(Integer userId, String sessionId, String token, Instant expiryDate) {
+        if (!running) {
+            throw new IllegalStateException("Refresh token writer is shut down");
+        }
+        CompletableFuture<Void> committed = new CompletableFuture<>();
+        PendingWrite write = new PendingWrite(userId, sessionId, token, expiryDate, committed);
+        queue.add(write);
+        try {
+            committed.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Not worth writing once the client has been told to retry; a batch already under way may still commit it
+            queue.remove(write);
+            throw new ServiceOverloadedException("Hệ thống đang quá tải. Vui lòng thử lại sau", RETRY_AFTER_SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while saving refresh token", e);
+        }
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(BATCH_SIZE);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<PendingWrite> batch) {
+        long started = System.nanoTime();
+        try {
+            transactionTemplate.executeWithoutResult(status ->
+                    jdbcTemplate.batchUpdate(UPSERT_SQL, batch, batch.size(), (ps, write) -> {
+                        ps.setInt(1, write.userId());
+                        ps.setString(2, write.sessionId());
+                        ps.setBytes(3, RefreshToken.hash(write.token()));
+                        ps.setTimestamp(4, Timestamp.from(write.expiryDate()));
+                    }));
+        } catch (RuntimeException e) {
+            // Every login in the batch fails; none of them has answered yet, so none is left holding a dead token
+            log.warn("Could not write {} refresh tokens: {}", batch.size(), e.getMessage());
+            batch.forEach(write -> write.committed().completeExceptionally(e));
+            return;
+        }
+        commitTime.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        batchSizes.record(batch.size());
+        batch.forEach(write -> write.committed().complete(null));
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.security.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class MappedSessionStoreTest {
+	private static final int CAPACITY = 1024;
+	private static final int HEADER_BYTES = 64;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void restoresSessionsAfterACleanShutdown() {
+		Path file = directory.resolve("sessions.bin");
+		long expiresAt = System.currentTimeMillis() + 900_000;
+		try (SessionStore store = new MappedSessionStore(file, CAPACITY)) {
+			assertThat(store.restoredFrom()).isZero();
+			store.put(42, "device-1", TokenFingerprint.of("token-1"), expiresAt, 1, 5);
+			store.put(42, "device-2", TokenFingerprint.of("token-2"), expiresAt, 2, 5);
+		}
+
+		try (SessionStore store = new MappedSessionStore(file, CAPACITY)) {
+			assertThat(store.restoredFrom()).isPositive();
+			assertThat(store.size()).isEqualTo(2);
+			assertThat(store.matches(42, "device-1", TokenFingerprint.of("token-1"), System.currentTimeMillis())).isTrue();
+			assertThat(store.removeOldest(42)).isEqualTo("device-1");
+		}
+	}
+
+	@Test
+	void dropsExpiredSessionsOnRestore() {
+		Path file = directory.resolve("sessions.bin");
+		long now = System.currentTimeMillis();
+		try (SessionStore store = new MappedSessionStore(file, CAPACITY)) {
+			store.put(42, "device-1", TokenFingerprint.of("token-1"), now - 1, now - 900_000, 5);
+			store.put(43, "device-1", TokenFingerprint.of("token-2"), now + 900_000, now, 5);
+		}
+
+		try (SessionStore store = new MappedSessionStore(file, CAPACITY)) {
+			assertThat(store.size()).isEqualTo(1);
+			assertThat(store.sessionCount(42)).isZero();
+			assertThat(store.sessionCount(43)).isEqualTo(1);
+		}
+	}
+
+	@Test
+	void rebuildsTheTableAfterACrashMidShift() throws IOException {
+		Path file = directory.resolve("sessions.bin");
+		long expiresAt = System.currentTimeMillis() + 900_000;
+		List<Long> users = usersWithHome(5, 3);
+		SessionStore crashed = new MappedSessionStore(file, CAPACITY);
+		for (long user : users) {
+			crashed.put(user, "device", TokenFingerprint.of("token-" + user), expiresAt, 1, 5);
+		}
+		// A delete that emptied the home slot but died before shifting the rest of the cluster back
+		((FileChannel) ReflectionTestUtils.getField(crashed, "channel")).close();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(Long.BYTES), HEADER_BYTES + 5L * SessionStore.SLOT_BYTES);
+		}
+
+		try (SessionStore store = new MappedSessionStore(file, CAPACITY)) {
+			assertThat(store.size()).isEqualTo(2);
+			assertThat(store.sessionCount(users.get(0))).isZero();
+			for (long user : users.subList(1, 3)) {
+				assertThat(store.matches(user, "device", TokenFingerprint.of("token-" + user), System.currentTimeMillis()))
+						.isTrue();
+			}
+		}
+	}
+
+	@Test
+	void startsEmptyWhenTheCapacityChanged() {
+		Path file = directory.resolve("sessions.bin");
+		try (SessionStore store = new MappedSessionStore(file, CAPACITY)) {
+			store.put(42, "device-1", TokenFingerprint.of("token-1"), System.currentTimeMillis() + 900_000, 1, 5);
+		}
+
+		try (SessionStore store = new MappedSessionStore(file, CAPACITY * 2)) {
+			assertThat(store.restoredFrom()).isZero();
+			assertThat(store.size()).isZero();
+			assertThat(store.capacity()).isEqualTo(CAPACITY * 2);
+		}
+	}
+
+	private static List<Long> usersWithHome(int home, int count) {
+		SessionStore.Table table = new SessionStore.Table(ByteBuffer.allocate(0), 0, CAPACITY);
+		List<Long> users = new ArrayList<>();
+		for (long user = 1; users.size() < count; user++) {
+			if (table.home(user) == home) {
+				users.add(user);
+			}
+		}
+		return users;
+	}
+}
@@ -0,0 +1,130 @@
+package com.example.security.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class RefreshTokenIndexTest {
+	private static final byte[] HASH = "hash-1".getBytes(StandardCharsets.US_ASCII);
+
+	private InProcessClusterEventBus clusterEventBus;
+	private RefreshTokenIndex index;
+
+	@BeforeEach
+	void setUp() {
+		clusterEventBus = new InProcessClusterEventBus();
+		index = index();
+	}
+
+	@AfterEach
+	void clearTransaction() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	@Test
+	void answersOnlyForTheLiveTokenHash() {
+		index.put(42, "device-1", index.version(42), entry(HASH, 3600));
+
+		assertThat(index.get(42, "device-1", HASH)).isNotNull();
+		assertThat(index.get(42, "device-1", "hash-2".getBytes(StandardCharsets.US_ASCII))).isNull();
+		assertThat(index.get(42, "device-2", HASH)).isNull();
+		assertThat(index.get(43, "device-1", HASH)).isNull();
+
+		index.put(42, "device-2", index.version(42), entry(HASH, -1));
+		assertThat(index.get(42, "device-2", HASH)).isNull();
+	}
+
+	@Test
+	void dropsARowReadBeforeAnInvalidation() {
+		long version = index.version(42);
+		// A logout lands between the database read and the put
+		index.invalidate(42, "device-1");
+		index.put(42, "device-1", version, entry(HASH, 3600));
+
+		assertThat(index.get(42, "device-1", HASH)).isNull();
+
+		index.put(42, "device-1", index.version(42), entry(HASH, 3600));
+		assertThat(index.get(42, "device-1", HASH)).isNotNull();
+	}
+
+	@Test
+	void invalidationOnlyBumpsItsOwnStripe() {
+		List<Long> otherStripe = new ArrayList<>();
+		long[] before = new long[200];
+		for (int user = 1; user < before.length; user++) {
+			before[user] = index.version(user);
+		}
+
+		index.invalidateUser(42);
+
+		assertThat(index.version(42)).isGreaterThan(before[42]);
+		for (int user = 1; user < before.length; user++) {
+			if (index.version(user) == before[user]) {
+				otherStripe.add((long) user);
+			}
+		}
+		assertThat(otherStripe).isNotEmpty();
+		long user = otherStripe.get(0);
+		index.put(user, "device-1", before[(int) user], entry(HASH, 3600));
+		assertThat(index.get(user, "device-1", HASH)).isNotNull();
+	}
+
+	@Test
+	void dropsTheEntryAgainAfterCommit() {
+		index.put(42, "device-1", index.version(42), entry(HASH, 3600));
+		TransactionSynchronizationManager.initSynchronization();
+		index.invalidate(42, "device-1");
+		// A concurrent refresh reloads the row the uncommitted transaction is about to delete
+		index.put(42, "device-1", index.version(42), entry(HASH, 3600));
+		assertThat(index.get(42, "device-1", HASH)).isNotNull();
+
+		TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+		assertThat(index.get(42, "device-1", HASH)).isNull();
+	}
+
+	@Test
+	void invalidatesEntriesOnOtherNodes() {
+		RefreshTokenIndex otherNode = index();
+		otherNode.put(42, "device-1", otherNode.version(42), entry(HASH, 3600));
+		otherNode.put(42, "device-2", otherNode.version(42), entry(HASH, 3600));
+		otherNode.put(43, "device-1", otherNode.version(43), entry(HASH, 3600));
+
+		index.rotated(42, "device-1");
+		assertThat(otherNode.get(42, "device-1", HASH)).isNull();
+		assertThat(otherNode.get(42, "device-2", HASH)).isNotNull();
+
+		clusterEventBus.publish(ClusterEvent.userRevoked("another-node", 42, System.currentTimeMillis()));
+		assertThat(otherNode.get(42, "device-2", HASH)).isNull();
+		assertThat(otherNode.get(43, "device-1", HASH)).isNotNull();
+	}
+
+	private RefreshTokenIndex index() {
+		RefreshTokenIndex index = new RefreshTokenIndex();
+		ReflectionTestUtils.setField(index, "ENABLED", true);
+		ReflectionTestUtils.setField(index, "MAXIMUM_SIZE", 1000L);
+		ReflectionTestUtils.setField(index, "TTL_SECONDS", 3600L);
+		ReflectionTestUtils.setField(index, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(index, "clusterEventBus", clusterEventBus);
+		index.init();
+		return index;
+	}
+
+	private static RefreshTokenIndex.Entry entry(byte[] hash, long expiresInSeconds) {
+		return new RefreshTokenIndex.Entry(hash, "user@example.com", Instant.now().plusSeconds(expiresInSeconds));
+	}
+}
@@ -0,0 +1,148 @@
+package com.example.security.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class SessionStoreTest {
+	private static final long NOW = 1_700_000_000_000L;
+	private static final long LATER = NOW + 900_000;
+
+	@Test
+	void matchesOnlyTheLiveTokenOfASession() {
+		try (SessionStore store = new HeapSessionStore(0)) {
+			TokenFingerprint token = TokenFingerprint.of("token-1");
+			store.put(42, "device-1", token, LATER, NOW, 5);
+
+			assertThat(store.matches(42, "device-1", token, NOW)).isTrue();
+			assertThat(store.matches(42, "device-1", TokenFingerprint.of("token-2"), NOW)).isFalse();
+			assertThat(store.matches(42, "device-2", token, NOW)).isFalse();
+			assertThat(store.matches(43, "device-1", token, NOW)).isFalse();
+			assertThat(store.matches(42, "device-1", token, LATER)).isFalse();
+		}
+	}
+
+	@Test
+	void replacingASessionKeepsItsCreationTime() {
+		try (SessionStore store = new HeapSessionStore(0)) {
+			store.put(42, "device-1", TokenFingerprint.of("token-1"), LATER, NOW, 2);
+			store.put(42, "device-2", TokenFingerprint.of("token-2"), LATER, NOW + 1, 2);
+			store.put(42, "device-1", TokenFingerprint.of("token-3"), LATER, NOW + 2, 2);
+
+			assertThat(store.sessionCount(42)).isEqualTo(2);
+			assertThat(store.matches(42, "device-1", TokenFingerprint.of("token-3"), NOW)).isTrue();
+			assertThat(store.removeOldest(42)).isEqualTo("device-1");
+		}
+	}
+
+	@Test
+	void sessionLimitDisplacesTheOldestSession() {
+		try (SessionStore store = new HeapSessionStore(0)) {
+			store.put(42, "device-1", TokenFingerprint.of("token-1"), LATER, NOW, 2);
+			store.put(42, "device-2", TokenFingerprint.of("token-2"), LATER, NOW + 1, 2);
+
+			List<String> displaced = store.put(42, "device-3", TokenFingerprint.of("token-3"), LATER, NOW + 2, 2);
+
+			assertThat(displaced).containsExactly("device-1");
+			assertThat(store.sessionCount(42)).isEqualTo(2);
+			assertThat(store.matches(42, "device-3", TokenFingerprint.of("token-3"), NOW)).isTrue();
+		}
+	}
+
+	@Test
+	void collidingUsersProbeIntoTheFollowingSlots() {
+		try (SessionStore store = new HeapSessionStore(0)) {
+			List<Long> users = usersWithHome(store.capacity(), 7, 4);
+			for (long user : users) {
+				store.put(user, "device", TokenFingerprint.of("token-" + user), LATER, NOW, 5);
+			}
+
+			for (long user : users) {
+				assertThat(store.matches(user, "device", TokenFingerprint.of("token-" + user), NOW)).isTrue();
+				assertThat(store.sessionCount(user)).isEqualTo(1);
+			}
+		}
+	}
+
+	@Test
+	void deleteShiftsTheRestOfTheClusterBack() {
+		try (SessionStore store = new HeapSessionStore(0)) {
+			// Home in the last slot, so the cluster wraps around to the start of the table
+			List<Long> users = usersWithHome(store.capacity(), store.capacity() - 1, 4);
+			for (long user : users) {
+				store.put(user, "device", TokenFingerprint.of("token-" + user), LATER, NOW, 5);
+			}
+
+			store.remove(users.get(0), "device");
+			store.remove(users.get(2), "device");
+
+			assertThat(store.size()).isEqualTo(2);
+			assertThat(store.matches(users.get(0), "device", TokenFingerprint.of("token-" + users.get(0)), NOW)).isFalse();
+			assertThat(store.matches(users.get(1), "device", TokenFingerprint.of("token-" + users.get(1)), NOW)).isTrue();
+			assertThat(store.matches(users.get(3), "device", TokenFingerprint.of("token-" + users.get(3)), NOW)).isTrue();
+		}
+	}
+
+	@Test
+	void removeWithAStaleTokenKeepsTheSession() {
+		try (SessionStore store = new HeapSessionStore(0)) {
+			store.put(42, "device-1", TokenFingerprint.of("token-2"), LATER, NOW, 5);
+
+			store.remove(42, "device-1", TokenFingerprint.of("token-1"));
+			assertThat(store.sessionCount(42)).isEqualTo(1);
+
+			store.remove(42, "device-1", TokenFingerprint.of("token-2"));
+			assertThat(store.sessionCount(42)).isZero();
+		}
+	}
+
+	@Test
+	void sweepRemovesExpiredSessionsAcrossSlices() {
+		try (SessionStore store = new HeapSessionStore(8192L * SessionStore.SLOT_BYTES)) {
+			for (long user = 1; user <= 5000; user++) {
+				store.put(user, "device", TokenFingerprint.of("token-" + user), user % 2 == 0 ? LATER : NOW, NOW - 1, 5);
+			}
+			assertThat(store.capacity()).isEqualTo(8192);
+
+			store.sweep(NOW);
+
+			assertThat(store.size()).isEqualTo(2500);
+			for (long user = 1; user <= 5000; user++) {
+				assertThat(store.sessionCount(user)).isEqualTo(user % 2 == 0 ? 1 : 0);
+			}
+		}
+	}
+
+	@Test
+	void fullTableEvictsTheSessionClosestToExpiry() {
+		try (SessionStore store = new HeapSessionStore(0)) {
+			int capacity = store.capacity();
+			int limit = capacity * 3 / 4;
+			for (long user = 1; user <= limit; user++) {
+				store.put(user, "device", TokenFingerprint.of("token-" + user), LATER + user, NOW, 5);
+			}
+
+			store.put(limit + 1, "device", TokenFingerprint.of("token-new"), LATER + limit + 1, NOW, 5);
+
+			assertThat(store.capacity()).isEqualTo(capacity);
+			assertThat(store.evictions()).isEqualTo(1);
+			assertThat(store.size()).isEqualTo(limit);
+			assertThat(store.matches(limit + 1, "device", TokenFingerprint.of("token-new"), NOW)).isTrue();
+		}
+	}
+
+	private static List<Long> usersWithHome(int capacity, int home, int count) {
+		SessionStore.Table table = new SessionStore.Table(ByteBuffer.allocate(0), 0, capacity);
+		List<Long> users = new ArrayList<>();
+		for (long user = 1; users.size() < count; user++) {
+			if (table.home(user) == home) {
+				users.add(user);
+			}
+		}
+		return users;
+	}
+}
@@ -0,0 +1,106 @@
+package com.example.security.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class TokenDenylistTest {
+	private static final long ACCESS_TOKEN_EXPIRATION = TimeUnit.MINUTES.toMillis(15);
+	private static final long PARTITION_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	private SimpleMeterRegistry meterRegistry;
+	private TokenDenylist denylist;
+	// Half way through a second, so a token issued in the same second is issued before a revocation at now
+	private long now;
+
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+		denylist = new TokenDenylist();
+		ReflectionTestUtils.setField(denylist, "ACCESS_TOKEN_EXPIRATION", ACCESS_TOKEN_EXPIRATION);
+		ReflectionTestUtils.setField(denylist, "PARTITION_SECONDS", TimeUnit.MILLISECONDS.toSeconds(PARTITION_MILLIS));
+		ReflectionTestUtils.setField(denylist, "EXPECTED_INSERTIONS", 1000);
+		ReflectionTestUtils.setField(denylist, "FALSE_POSITIVE_RATE", 0.01);
+		ReflectionTestUtils.setField(denylist, "meterRegistry", meterRegistry);
+		denylist.init();
+		now = System.currentTimeMillis() / 1000 * 1000 + 500;
+	}
+
+	@Test
+	void revokesASingleTokenById() {
+		denylist.revokeToken("jti-1", now + ACCESS_TOKEN_EXPIRATION);
+
+		assertThat(denylist.isRevoked(42, "device-1", "jti-1", now, now)).isTrue();
+		assertThat(denylist.isRevoked(42, "device-1", "jti-2", now - 60_000, now)).isFalse();
+		assertThat(denylist.isRevoked(42, "device-1", null, now - 60_000, now)).isFalse();
+	}
+
+	@Test
+	void sessionRevocationCoversTokensIssuedBeforeIt() {
+		denylist.revokeSession(42, "device-1", now);
+
+		assertThat(denylist.isRevoked(42, "device-1", "jti-1", issuedAt(now - 1000), now)).isTrue();
+		// Issued earlier in the same second as the logout
+		assertThat(denylist.isRevoked(42, "device-1", "jti-2", issuedAt(now), now)).isTrue();
+		assertThat(denylist.isRevoked(42, "device-1", "jti-3", issuedAt(now + 1000), now)).isFalse();
+		assertThat(denylist.isRevoked(42, "device-2", "jti-4", issuedAt(now - 1000), now)).isFalse();
+		assertThat(denylist.isRevoked(43, "device-1", "jti-5", issuedAt(now - 1000), now)).isFalse();
+	}
+
+	@Test
+	void aLoginInTheSameSecondAsALogoutGetsItsOwnSession() {
+		denylist.revokeSession(42, "session-1", now);
+		denylist.revokeToken("jti-1", now + ACCESS_TOKEN_EXPIRATION);
+
+		assertThat(denylist.isRevoked(42, "session-1", "jti-1", issuedAt(now), now)).isTrue();
+		assertThat(denylist.isRevoked(42, "session-2", "jti-2", issuedAt(now), now)).isFalse();
+	}
+
+	@Test
+	void userRevocationCoversEverySession() {
+		denylist.revokeUser(42, now);
+
+		assertThat(denylist.isRevoked(42, "device-1", "jti-1", issuedAt(now - 1000), now)).isTrue();
+		assertThat(denylist.isRevoked(42, "device-2", "jti-2", issuedAt(now - 1000), now)).isTrue();
+		assertThat(denylist.isRevoked(42, "device-1", "jti-3", issuedAt(now), now)).isTrue();
+		assertThat(denylist.isRevoked(42, "device-1", "jti-4", issuedAt(now + 1000), now)).isFalse();
+	}
+
+	@Test
+	void laterRevocationOfTheSameSessionWins() {
+		denylist.revokeSession(42, "device-1", now - 10_000);
+		denylist.revokeSession(42, "device-1", now);
+		denylist.revokeSession(42, "device-1", now - 20_000);
+
+		assertThat(denylist.size()).isEqualTo(1);
+		assertThat(denylist.isRevoked(42, "device-1", "jti-1", issuedAt(now - 5000), now)).isTrue();
+	}
+
+	@Test
+	void entriesGoIntoThePartitionCoveringTheirLastTokenExpiry() {
+		denylist.revokeToken("jti-1", now + PARTITION_MILLIS / 2);
+		denylist.revokeToken("jti-2", now + ACCESS_TOKEN_EXPIRATION);
+		// Nothing it matches is still valid
+		denylist.revokeToken("jti-3", now - 1000);
+
+		assertThat(denylist.size()).isEqualTo(2);
+		assertThat(meterRegistry.get("token-denylist.partitions").gauge().value()).isEqualTo(2);
+
+		long afterFirst = now + 2 * PARTITION_MILLIS;
+		assertThat(denylist.isRevoked(42, "device-1", "jti-1", now, afterFirst)).isFalse();
+		assertThat(denylist.isRevoked(42, "device-1", "jti-2", now, afterFirst)).isTrue();
+		long afterBoth = now + ACCESS_TOKEN_EXPIRATION + PARTITION_MILLIS;
+		assertThat(denylist.isRevoked(42, "device-1", "jti-2", now, afterBoth)).isFalse();
+	}
+
+	// iat has second precision
+	private static long issuedAt(long millis) {
+		return millis / 1000 * 1000;
+	}
+}
@@ -0,0 +1,86 @@
+package com.example.security.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.example.security.enums.Role;
+import com.example.security.model.User;
+import com.example.security.model.UserSnapshot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class UserDetailsCacheTest {
+	private final AtomicInteger loads = new AtomicInteger();
+	private InProcessClusterEventBus clusterEventBus;
+	private UserDetailsCache thisNode;
+	private UserDetailsCache otherNode;
+	private User user;
+
+	@BeforeEach
+	void setUp() {
+		clusterEventBus = new InProcessClusterEventBus();
+		thisNode = cache();
+		otherNode = cache();
+		user = User.builder().id(42).email("user@example.com").password("hash").role(Role.USER).build();
+	}
+
+	@AfterEach
+	void clearTransaction() {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+	}
+
+	@Test
+	void changesOnOneNodeDropTheUserOnTheOthers() {
+		load(thisNode);
+		load(otherNode);
+		assertThat(loads.get()).isEqualTo(2);
+
+		thisNode.invalidate(user);
+		load(thisNode);
+		load(otherNode);
+
+		assertThat(loads.get()).isEqualTo(4);
+	}
+
+	@Test
+	void tellsTheOtherNodesOnlyAfterCommit() {
+		load(otherNode);
+		TransactionSynchronizationManager.initSynchronization();
+
+		thisNode.invalidate(user);
+		load(otherNode);
+		assertThat(loads.get()).isEqualTo(1);
+
+		TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+		load(otherNode);
+		assertThat(loads.get()).isEqualTo(2);
+	}
+
+	private void load(UserDetailsCache cache) {
+		cache.get(user.getEmail(), email -> {
+			loads.incrementAndGet();
+			return UserSnapshot.from(user);
+		});
+	}
+
+	private UserDetailsCache cache() {
+		UserDetailsCache cache = new UserDetailsCache();
+		ReflectionTestUtils.setField(cache, "ENABLED", true);
+		ReflectionTestUtils.setField(cache, "MAXIMUM_SIZE", 100L);
+		ReflectionTestUtils.setField(cache, "TTL_SECONDS", 300L);
+		ReflectionTestUtils.setField(cache, "meterRegistry", new SimpleMeterRegistry());
+		ReflectionTestUtils.setField(cache, "clusterEventBus", clusterEventBus);
+		cache.init();
+		return cache;
+	}
+}
@@ -0,0 +1,83 @@
+package com.example.security.crypto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+class AdaptivePasswordEncoderTest {
+	// Low costs keep the test fast; only their relative order matters
+	private static final int BCRYPT_STRENGTH = 4;
+	private static final int PBKDF2_ITERATIONS = 1000;
+
+	@Test
+	void prefixesNewHashesWithTheirAlgorithm() {
+		assertThat(encoder("bcrypt", PBKDF2_ITERATIONS).encode("secret")).startsWith("{bcrypt}$2a$04$");
+		assertThat(encoder("pbkdf2", PBKDF2_ITERATIONS).encode("secret")).startsWith("{pbkdf2@1000}");
+		assertThat(encoder("argon2", PBKDF2_ITERATIONS).encode("secret")).startsWith("{argon2}$argon2id$");
+	}
+
+	@Test
+	void verifiesHashesOfEveryAlgorithmAndIterationCount() {
+		AdaptivePasswordEncoder encoder = encoder("argon2", PBKDF2_ITERATIONS);
+		String legacy = new BCryptPasswordEncoder(BCRYPT_STRENGTH).encode("secret");
+
+		assertThat(encoder.matches("secret", legacy)).isTrue();
+		assertThat(encoder.matches("secret", encoder("bcrypt", PBKDF2_ITERATIONS).encode("secret"))).isTrue();
+		assertThat(encoder.matches("secret", encoder("pbkdf2", 2000).encode("secret"))).isTrue();
+		assertThat(encoder.matches("secret", encoder.encode("secret"))).isTrue();
+		assertThat(encoder.matches("other", encoder.encode("secret"))).isFalse();
+		assertThat(encoder.matches("secret", "{md5}abc")).isFalse();
+		assertThat(encoder.matches("secret", "{pbkdf2@x}abc")).isFalse();
+		assertThat(encoder.matches("secret", "")).isFalse();
+	}
+
+	@Test
+	void upgradesLegacyHashesAndHashesOfAnotherAlgorithm() {
+		AdaptivePasswordEncoder encoder = encoder("argon2", PBKDF2_ITERATIONS);
+
+		assertThat(encoder.upgradeEncoding(new BCryptPasswordEncoder(BCRYPT_STRENGTH).encode("secret"))).isTrue();
+		assertThat(encoder.upgradeEncoding(encoder("bcrypt", PBKDF2_ITERATIONS).encode("secret"))).isTrue();
+		assertThat(encoder.upgradeEncoding(encoder("pbkdf2", 2000).encode("secret"))).isTrue();
+		assertThat(encoder.upgradeEncoding(encoder.encode("secret"))).isFalse();
+		assertThat(encoder.upgradeEncoding("")).isFalse();
+	}
+
+	@Test
+	void upgradesABcryptHashOnlyBelowTheCurrentStrength() {
+		AdaptivePasswordEncoder encoder = encoder("bcrypt", PBKDF2_ITERATIONS);
+
+		assertThat(encoder.upgradeEncoding("{bcrypt}" + new BCryptPasswordEncoder(BCRYPT_STRENGTH).encode("secret")))
+				.isFalse();
+		assertThat(encoder.upgradeEncoding(encoder("bcrypt", PBKDF2_ITERATIONS, BCRYPT_STRENGTH + 1).encode("secret")))
+				.isFalse();
+		assertThat(encoder("bcrypt", PBKDF2_ITERATIONS, BCRYPT_STRENGTH + 1).upgradeEncoding(encoder.encode("secret")))
+				.isTrue();
+	}
+
+	@Test
+	void upgradesAPbkdf2HashOnlyWithFewerIterations() {
+		AdaptivePasswordEncoder encoder = encoder("pbkdf2", PBKDF2_ITERATIONS);
+
+		assertThat(encoder.upgradeEncoding(encoder("pbkdf2", PBKDF2_ITERATIONS / 2).encode("secret"))).isTrue();
+		assertThat(encoder.upgradeEncoding(encoder.encode("secret"))).isFalse();
+		// A node calibrated to a higher target never lowers it
+		assertThat(encoder.upgradeEncoding(encoder("pbkdf2", PBKDF2_ITERATIONS * 2).encode("secret"))).isFalse();
+		assertThat(encoder.upgradeEncoding("{pbkdf2@x}abc")).isTrue();
+	}
+
+	private static AdaptivePasswordEncoder encoder(String algorithm, int pbkdf2Iterations) {
+		return encoder(algorithm, pbkdf2Iterations, BCRYPT_STRENGTH);
+	}
+
+	private static AdaptivePasswordEncoder encoder(String algorithm, int pbkdf2Iterations, int bcryptStrength) {
+		return new AdaptivePasswordEncoder(PasswordHashSettings.builder()
+				.algorithm(algorithm)
+				.bcryptStrength(bcryptStrength)
+				.pbkdf2Iterations(pbkdf2Iterations)
+				.argon2MemoryKb(1024)
+				.argon2Iterations(1)
+				.argon2Parallelism(1)
+				.build());
+	}
+}
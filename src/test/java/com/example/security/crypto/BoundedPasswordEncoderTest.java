@@ -0,0 +1,148 @@
+package com.example.security.crypto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import com.example.security.exception.ServiceOverloadedException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class BoundedPasswordEncoderTest {
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final AtomicInteger started = new AtomicInteger();
+	private SimpleMeterRegistry meterRegistry;
+	private BoundedPasswordEncoder encoder;
+
+	@BeforeEach
+	void setUp() {
+		meterRegistry = new SimpleMeterRegistry();
+	}
+
+	@AfterEach
+	void tearDown() {
+		release.countDown();
+		if (encoder != null) {
+			encoder.close();
+		}
+	}
+
+	@Test
+	void hashesOnThePool() {
+		encoder = encoder(new BlockingEncoder(false), 2, 5000);
+
+		assertThat(encoder.encode("secret")).isEqualTo("hash:secret");
+		assertThat(encoder.matches("secret", "hash:secret")).isTrue();
+		assertThat(encoder.matches("other", "hash:secret")).isFalse();
+		assertThat(meterRegistry.get("password-hashing.rejected").counter().count()).isZero();
+	}
+
+	@Test
+	void shedsCallersBeyondThePoolAndQueue() throws Exception {
+		// One thread and one queue slot
+		encoder = encoder(new BlockingEncoder(true), 1, 5000);
+		CompletableFuture<Boolean> running = CompletableFuture.supplyAsync(() -> encoder.matches("a", "hash:a"));
+		waitUntilStarted();
+		CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(() -> encoder.matches("b", "hash:b"));
+		waitUntilQueued();
+
+		long before = System.nanoTime();
+		assertThatThrownBy(() -> encoder.matches("c", "hash:c"))
+				.isInstanceOfSatisfying(ServiceOverloadedException.class,
+						e -> assertThat(e.getRetryAfterSeconds()).isEqualTo(2));
+		// Rejected without waiting for a slot
+		assertThat(System.nanoTime() - before).isLessThan(TimeUnit.SECONDS.toNanos(1));
+		assertThat(meterRegistry.get("password-hashing.rejected").counter().count()).isEqualTo(1);
+
+		release.countDown();
+		assertThat(running.get(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(queued.get(5, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@Test
+	void givesUpOnACallerThatWaitsTooLong() throws Exception {
+		encoder = encoder(new BlockingEncoder(true), 1, 200);
+		CompletableFuture.runAsync(() -> encoder.matches("a", "hash:a"));
+		waitUntilStarted();
+
+		assertThatThrownBy(() -> encoder.matches("b", "hash:b")).isInstanceOf(ServiceOverloadedException.class);
+		assertThat(meterRegistry.get("password-hashing.rejected").counter().count()).isGreaterThanOrEqualTo(1);
+	}
+
+	@Test
+	void checksForUpgradesOnTheCallersThread() {
+		encoder = encoder(new BlockingEncoder(true), 1, 200);
+		CompletableFuture.runAsync(() -> encoder.matches("a", "hash:a"));
+
+		// Would time out if it needed a pool thread
+		assertThat(encoder.upgradeEncoding("hash:a")).isTrue();
+	}
+
+	private void waitUntilStarted() throws InterruptedException {
+		waitUntil(() -> started.get() == 1);
+	}
+
+	private void waitUntilQueued() throws InterruptedException {
+		waitUntil(() -> meterRegistry.get("executor.queued").tag("name", "password-hashing").gauge().value() == 1);
+	}
+
+	private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean()) {
+			assertThat(System.nanoTime()).as("condition not met within 5 s").isLessThan(deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private BoundedPasswordEncoder encoder(PasswordEncoder delegate, int queueCapacity, long timeoutMillis) {
+		return new BoundedPasswordEncoder(delegate, 1, queueCapacity, timeoutMillis, 2, meterRegistry);
+	}
+
+	// Stands in for a slow hash; when blocking, every hash waits until the test releases it
+	private class BlockingEncoder implements PasswordEncoder {
+		private final boolean blocking;
+
+		BlockingEncoder(boolean blocking) {
+			this.blocking = blocking;
+		}
+
+		@Override
+		public String encode(CharSequence rawPassword) {
+			await();
+			return "hash:" + rawPassword;
+		}
+
+		@Override
+		public boolean matches(CharSequence rawPassword, String encodedPassword) {
+			await();
+			return encodedPassword.equals("hash:" + rawPassword);
+		}
+
+		@Override
+		public boolean upgradeEncoding(String encodedPassword) {
+			return true;
+		}
+
+		private void await() {
+			started.incrementAndGet();
+			if (!blocking) {
+				return;
+			}
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package com.example.security.http;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import com.example.security.exception.ServiceOverloadedException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ProviderHttpClientTest {
+	private static final ProviderHttpSettings SETTINGS = ProviderHttpSettings.builder()
+			.maxConnections(4)
+			.connectTimeoutMs(500)
+			.responseTimeoutMs(300)
+			.connectionRequestTimeoutMs(200)
+			.keepAliveSeconds(30)
+			.maxConcurrentCalls(2)
+			.bulkheadWaitMs(0)
+			.failureThreshold(3)
+			.openSeconds(1)
+			.build();
+
+	private HttpServer server;
+	private ExecutorService serverThreads;
+	private SimpleMeterRegistry meterRegistry;
+	private final AtomicInteger hits = new AtomicInteger();
+	private volatile int status = 200;
+	private volatile long delayMs;
+	private volatile CountDownLatch release;
+
+	@BeforeEach
+	void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		serverThreads = Executors.newCachedThreadPool();
+		server.setExecutor(serverThreads);
+		server.createContext("/", this::handle);
+		server.start();
+		meterRegistry = new SimpleMeterRegistry();
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.stop(0);
+		serverThreads.shutdownNow();
+	}
+
+	@Test
+	void reusesPooledConnectionsAndRecordsLatency() throws IOException {
+		try (ProviderHttpClient client = client(SETTINGS)) {
+			for (int i = 0; i < 5; i++) {
+				assertThat(client.restTemplate().getForObject(url(), String.class)).isEqualTo("ok");
+			}
+		}
+		assertThat(hits.get()).isEqualTo(5);
+		assertThat(meterRegistry.get("identity-provider.requests")
+				.tags("provider", "stub", "outcome", "success").timer().count()).isEqualTo(5);
+		assertThat(meterRegistry.find("httpcomponents.httpclient.pool.total.max").gauge()).isNotNull();
+	}
+
+	@Test
+	void slowResponseFailsAtTheResponseTimeout() throws IOException {
+		delayMs = 2000;
+		try (ProviderHttpClient client = client(SETTINGS)) {
+			long started = System.nanoTime();
+			assertThatThrownBy(() -> client.restTemplate().getForObject(url(), String.class))
+					.isInstanceOf(ResourceAccessException.class);
+			assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)).isLessThan(1500);
+		}
+		assertThat(meterRegistry.get("identity-provider.requests")
+				.tags("provider", "stub", "outcome", "io-error").timer().count()).isEqualTo(1);
+	}
+
+	@Test
+	void circuitOpensAfterRepeatedServerErrorsAndClosesAfterASuccessfulTrial() throws Exception {
+		status = 503;
+		try (ProviderHttpClient client = client(SETTINGS)) {
+			for (int i = 0; i < 3; i++) {
+				assertThatThrownBy(() -> client.restTemplate().getForObject(url(), String.class))
+						.isInstanceOf(HttpServerErrorException.class);
+			}
+			// Open: fails without reaching the provider
+			assertThatThrownBy(() -> client.restTemplate().getForObject(url(), String.class))
+					.isInstanceOf(ServiceOverloadedException.class)
+					.satisfies(e -> assertThat(((ServiceOverloadedException) e).getRetryAfterSeconds()).isEqualTo(1));
+			assertThat(hits.get()).isEqualTo(3);
+
+			status = 200;
+			Thread.sleep(1100);
+			assertThat(client.restTemplate().getForObject(url(), String.class)).isEqualTo("ok");
+			assertThat(client.restTemplate().getForObject(url(), String.class)).isEqualTo("ok");
+			assertThat(hits.get()).isEqualTo(5);
+		}
+		assertThat(meterRegistry.get("identity-provider.rejected")
+				.tags("provider", "stub", "reason", "circuit-open").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	void clientErrorsDoNotOpenTheCircuit() throws IOException {
+		status = 400;
+		try (ProviderHttpClient client = client(SETTINGS)) {
+			for (int i = 0; i < 5; i++) {
+				assertThatThrownBy(() -> client.restTemplate().getForObject(url(), String.class))
+						.isNotInstanceOf(ServiceOverloadedException.class);
+			}
+		}
+		assertThat(hits.get()).isEqualTo(5);
+	}
+
+	@Test
+	void bulkheadRejectsCallsBeyondTheConcurrencyLimit() throws Exception {
+		release = new CountDownLatch(1);
+		ExecutorService callers = Executors.newFixedThreadPool(2);
+		try (ProviderHttpClient client = client(SETTINGS.toBuilder().responseTimeoutMs(5000).build())) {
+			Future<String> first = callers.submit(() -> client.restTemplate().getForObject(url(), String.class));
+			Future<String> second = callers.submit(() -> client.restTemplate().getForObject(url(), String.class));
+			while (hits.get() < 2) {
+				Thread.sleep(10);
+			}
+			assertThatThrownBy(() -> client.restTemplate().getForObject(url(), String.class))
+					.isInstanceOf(ServiceOverloadedException.class);
+
+			release.countDown();
+			assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("ok");
+			assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("ok");
+		} finally {
+			callers.shutdownNow();
+		}
+		assertThat(hits.get()).isEqualTo(2);
+		assertThat(meterRegistry.get("identity-provider.rejected")
+				.tags("provider", "stub", "reason", "bulkhead").counter().count()).isEqualTo(1);
+	}
+
+	private ProviderHttpClient client(ProviderHttpSettings settings) {
+		return new ProviderHttpClient("stub", settings, meterRegistry);
+	}
+
+	private String url() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		hits.incrementAndGet();
+		try {
+			if (release != null) {
+				release.await(5, TimeUnit.SECONDS);
+			}
+			if (delayMs > 0) {
+				Thread.sleep(delayMs);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "text/plain");
+		exchange.sendResponseHeaders(status, body.length);
+		exchange.getResponseBody().write(body);
+		exchange.close();
+	}
+}
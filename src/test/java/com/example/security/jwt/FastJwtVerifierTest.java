@@ -0,0 +1,168 @@
+package com.example.security.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.example.security.cache.InProcessClusterEventBus;
+import com.example.security.repository.SigningKeyStateRepository;
+
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+
+class FastJwtVerifierTest {
+	private static final String SECRET = "404E635266556A586E3272357538782F413F4428472B4B6250645367566B5970";
+	private static final String OLD_SECRET = "5367566B59703373367639792F423F4528482B4D6251655468576D5A71347437";
+
+	private JwtKeyRegistry keyRegistry;
+	private FastJwtVerifier verifier;
+	private long now;
+
+	@BeforeEach
+	void setUp() {
+		keyRegistry = new JwtKeyRegistry();
+		ReflectionTestUtils.setField(keyRegistry, "SECRET_KEY", SECRET);
+		ReflectionTestUtils.setField(keyRegistry, "PRIMARY_KEY_ID", "primary");
+		ReflectionTestUtils.setField(keyRegistry, "ADDITIONAL_KEYS", "old=" + OLD_SECRET);
+		ReflectionTestUtils.setField(keyRegistry, "SIGNING_KEY_ID", "");
+		ReflectionTestUtils.setField(keyRegistry, "RETIRED_KEY_IDS", "");
+		ReflectionTestUtils.setField(keyRegistry, "ALGORITHM", "HS256");
+		ReflectionTestUtils.setField(keyRegistry, "ASYMMETRIC_KEY_ID", "");
+		ReflectionTestUtils.setField(keyRegistry, "PRIVATE_KEY", "");
+		ReflectionTestUtils.setField(keyRegistry, "PUBLIC_KEY", "");
+		ReflectionTestUtils.setField(keyRegistry, "clusterEventBus", new InProcessClusterEventBus());
+		ReflectionTestUtils.setField(keyRegistry, "signingKeyStateRepository", mock(SigningKeyStateRepository.class));
+		keyRegistry.init();
+
+		verifier = new FastJwtVerifier();
+		ReflectionTestUtils.setField(verifier, "keyRegistry", keyRegistry);
+		now = System.currentTimeMillis() / 1000 * 1000;
+	}
+
+	@Test
+	void readsTheSameClaimsAsJjwt() {
+		Map<String, Object> claims = new LinkedHashMap<>();
+		claims.put("uid", 42);
+		claims.put("sid", "device-1");
+		claims.put("typ", "access");
+		claims.put("big", Long.MAX_VALUE);
+		String token = jjwt("primary", SECRET, claims, now + 900_000);
+
+		VerifiedToken verified = verifier.verify(token);
+
+		assertThat(verified).isNotNull();
+		assertThat(verified.getKeyId()).isEqualTo("primary");
+		assertThat(verified.getSubject()).isEqualTo("user@example.com");
+		assertThat(verified.getIssuedAt()).isEqualTo(Instant.ofEpochMilli(now));
+		assertThat(verified.getExpiresAt()).isEqualTo(Instant.ofEpochMilli(now + 900_000));
+		assertThat(verified.getClaims()).isEqualTo(new LinkedHashMap<>(keyRegistry.parser().parseClaimsJws(token).getBody()));
+		assertThat(verified.getClaims().get("uid")).isInstanceOf(Integer.class);
+	}
+
+	@Test
+	void acceptsEveryActiveKeyAndTokensWithoutKid() {
+		assertThat(verifier.verify(jjwt("old", OLD_SECRET, Map.of(), now + 900_000)).getKeyId()).isEqualTo("old");
+		assertThat(verifier.verify(jjwt(null, SECRET, Map.of(), now + 900_000)).getKeyId()).isEqualTo("primary");
+	}
+
+	@Test
+	void rejectsTokensOfARetiredKey() {
+		String token = jjwt("old", OLD_SECRET, Map.of(), now + 900_000);
+		assertThat(verifier.verify(token)).isNotNull();
+
+		keyRegistry.retire("old");
+
+		assertThat(verifier.verify(token)).isNull();
+	}
+
+	@Test
+	void rejectsABadSignature() {
+		// Signed with another secret under our kid
+		assertThat(verifier.verify(jjwt("primary", OLD_SECRET, Map.of(), now + 900_000))).isNull();
+
+		String token = jjwt("primary", SECRET, Map.of(), now + 900_000);
+		String[] parts = token.split("\\.");
+		String otherPayload = encode("{\"sub\":\"admin@example.com\",\"exp\":" + (now / 1000 + 900) + "}");
+		assertThat(verifier.verify(parts[0] + "." + otherPayload + "." + parts[2])).isNull();
+		assertThat(verifier.verify(parts[0] + "." + parts[1] + ".")).isNull();
+		assertThat(verifier.verify(parts[0] + "." + parts[1] + "." + parts[2] + "A")).isNull();
+	}
+
+	@Test
+	void rejectsAnotherAlgorithm() {
+		String hs512 = Jwts.builder()
+				.setHeaderParam("kid", "primary")
+				.setSubject("user@example.com")
+				.setExpiration(new Date(now + 900_000))
+				.signWith(Keys.hmacShaKeyFor(Decoders.BASE64.decode(SECRET + SECRET)), SignatureAlgorithm.HS512)
+				.compact();
+		assertThat(verifier.verify(hs512)).isNull();
+
+		String unsigned = encode("{\"alg\":\"none\"}") + "." + encode("{\"sub\":\"user@example.com\",\"exp\":"
+				+ (now / 1000 + 900) + "}") + ".";
+		assertThat(verifier.verify(unsigned)).isNull();
+	}
+
+	@Test
+	void rejectsAnExpiredToken() {
+		assertThat(verifier.verify(jjwt("primary", SECRET, Map.of(), now - 1000))).isNull();
+		assertThat(verifier.verify(jjwt("primary", SECRET, Map.of(), now))).isNull();
+	}
+
+	@Test
+	void leavesUnusualPayloadsToJjwt() {
+		assertThat(verifier.verify(jjwt("primary", SECRET, Map.of("nbf", now / 1000), now + 900_000))).isNull();
+		assertThat(verifier.verify(jjwt("primary", SECRET, Map.of("roles", List.of("USER")), now + 900_000))).isNull();
+		assertThat(verifier.verify(jjwt("primary", SECRET, Map.of("address", Map.of("city", "Hà Nội")), now + 900_000)))
+				.isNull();
+		assertThat(verifier.verify(jjwt("primary", SECRET, Map.of("ratio", 0.5), now + 900_000))).isNull();
+		String withoutExp = Jwts.builder()
+				.setHeaderParam("kid", "primary")
+				.setSubject("user@example.com")
+				.signWith(Keys.hmacShaKeyFor(Decoders.BASE64.decode(SECRET)), SignatureAlgorithm.HS256)
+				.compact();
+		assertThat(verifier.verify(withoutExp)).isNull();
+	}
+
+	@Test
+	void rejectsMalformedTokens() {
+		String token = jjwt("primary", SECRET, Map.of(), now + 900_000);
+		assertThat(verifier.verify(token + ".extra")).isNull();
+		assertThat(verifier.verify(token.substring(0, token.lastIndexOf('.')))).isNull();
+		assertThat(verifier.verify("")).isNull();
+		assertThat(verifier.verify(jjwt("primary", SECRET, Map.of("padding", "x".repeat(8192)), now + 900_000)))
+				.isNull();
+	}
+
+	private String jjwt(String keyId, String secret, Map<String, ?> claims, long expiresAt) {
+		JwtBuilder builder = Jwts.builder();
+		if (keyId != null) {
+			builder.setHeaderParam("kid", keyId);
+		}
+		return builder
+				.setClaims(new LinkedHashMap<>(claims))
+				.setSubject("user@example.com")
+				.setIssuedAt(new Date(now))
+				.setExpiration(new Date(expiresAt))
+				.signWith(Keys.hmacShaKeyFor(Decoders.BASE64.decode(secret)), SignatureAlgorithm.HS256)
+				.compact();
+	}
+
+	private static String encode(String json) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+	}
+}
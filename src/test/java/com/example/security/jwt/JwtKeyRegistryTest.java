@@ -0,0 +1,117 @@
+package com.example.security.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.example.security.cache.InProcessClusterEventBus;
+import com.example.security.model.SigningKeyState;
+import com.example.security.repository.SigningKeyStateRepository;
+
+import io.jsonwebtoken.SignatureAlgorithm;
+
+class JwtKeyRegistryTest {
+	private static final String SECRET = "404E635266556A586E3272357538782F413F4428472B4B6250645367566B5970";
+	private static final String OLD_SECRET = "5367566B59703373367639792F423F4528482B4D6251655468576D5A71347437";
+	private static final String NEW_SECRET = "6251655468576D5A7134743777217A25432A462D4A614E645267556B58703272";
+
+	// Stands in for the signing_key_states table shared by all nodes
+	private final Map<String, SigningKeyState> states = new ConcurrentHashMap<>();
+	private final SigningKeyStateRepository repository = mock(SigningKeyStateRepository.class);
+
+	@BeforeEach
+	void setUp() {
+		when(repository.findAll()).thenAnswer(invocation -> List.copyOf(states.values()));
+		when(repository.findById(anyString())).thenAnswer(invocation ->
+				Optional.ofNullable(states.get(invocation.<String>getArgument(0))).map(JwtKeyRegistryTest::copy));
+		when(repository.save(any())).thenAnswer(invocation -> {
+			SigningKeyState state = invocation.getArgument(0);
+			states.put(state.getKeyId(), copy(state));
+			return state;
+		});
+	}
+
+	@Test
+	void refusesToStartAnAsymmetricAlgorithmWithoutAKeyPair() {
+		JwtKeyRegistry keyRegistry = keyRegistry("RS256");
+
+		assertThatThrownBy(keyRegistry::init)
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessageContaining("jwt.asymmetric.private-key");
+	}
+
+	@Test
+	void generatesAnEphemeralKeyPairOnlyWhenAllowed() {
+		JwtKeyRegistry keyRegistry = keyRegistry("ES256");
+		ReflectionTestUtils.setField(keyRegistry, "ALLOW_EPHEMERAL_KEY", true);
+
+		keyRegistry.init();
+
+		assertThat(keyRegistry.currentKey().getAlgorithm()).isEqualTo(SignatureAlgorithm.ES256);
+	}
+
+	@Test
+	void changesSurviveARestart() {
+		JwtKeyRegistry keyRegistry = started();
+		keyRegistry.activate("new");
+		keyRegistry.retire("primary");
+
+		JwtKeyRegistry restarted = started();
+
+		assertThat(restarted.currentKey().getKeyId()).isEqualTo("new");
+		assertThat(restarted.isAccepted("primary")).isFalse();
+		assertThat(restarted.isAccepted("old")).isTrue();
+	}
+
+	@Test
+	void theLatestActivationOfAUsableKeyWins() {
+		states.put("old", SigningKeyState.builder().keyId("old").activatedAt(3000L).retiredAt(4000L).build());
+		states.put("new", SigningKeyState.builder().keyId("new").activatedAt(2000L).build());
+		states.put("primary", SigningKeyState.builder().keyId("primary").activatedAt(1000L).build());
+		// No longer configured
+		states.put("gone", SigningKeyState.builder().keyId("gone").activatedAt(5000L).build());
+
+		JwtKeyRegistry keyRegistry = started();
+
+		assertThat(keyRegistry.currentKey().getKeyId()).isEqualTo("new");
+		assertThat(keyRegistry.isAccepted("old")).isFalse();
+	}
+
+	private JwtKeyRegistry started() {
+		JwtKeyRegistry keyRegistry = keyRegistry("HS256");
+		keyRegistry.init();
+		return keyRegistry;
+	}
+
+	private JwtKeyRegistry keyRegistry(String algorithm) {
+		JwtKeyRegistry keyRegistry = new JwtKeyRegistry();
+		ReflectionTestUtils.setField(keyRegistry, "SECRET_KEY", SECRET);
+		ReflectionTestUtils.setField(keyRegistry, "PRIMARY_KEY_ID", "primary");
+		ReflectionTestUtils.setField(keyRegistry, "ADDITIONAL_KEYS", "old=" + OLD_SECRET + ";new=" + NEW_SECRET);
+		ReflectionTestUtils.setField(keyRegistry, "SIGNING_KEY_ID", "");
+		ReflectionTestUtils.setField(keyRegistry, "RETIRED_KEY_IDS", "");
+		ReflectionTestUtils.setField(keyRegistry, "ALGORITHM", algorithm);
+		ReflectionTestUtils.setField(keyRegistry, "ASYMMETRIC_KEY_ID", "");
+		ReflectionTestUtils.setField(keyRegistry, "PRIVATE_KEY", "");
+		ReflectionTestUtils.setField(keyRegistry, "PUBLIC_KEY", "");
+		ReflectionTestUtils.setField(keyRegistry, "clusterEventBus", new InProcessClusterEventBus());
+		ReflectionTestUtils.setField(keyRegistry, "signingKeyStateRepository", repository);
+		return keyRegistry;
+	}
+
+	private static SigningKeyState copy(SigningKeyState state) {
+		return new SigningKeyState(state.getKeyId(), state.getActivatedAt(), state.getRetiredAt());
+	}
+}
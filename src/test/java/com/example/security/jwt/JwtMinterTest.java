@@ -0,0 +1,142 @@
+package com.example.security.jwt;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.example.security.cache.InProcessClusterEventBus;
+import com.example.security.repository.SigningKeyStateRepository;
+
+import io.jsonwebtoken.Jwts;
+
+class JwtMinterTest {
+	private static final String SECRET = "404E635266556A586E3272357538782F413F4428472B4B6250645367566B5970";
+	private static final long ISSUED_AT = 1_700_000_000_123L;
+	private static final long EXPIRES_AT = ISSUED_AT + 900_000;
+
+	private final JwtMinter minter = new JwtMinter();
+	private JwtSigningKey key;
+
+	@BeforeEach
+	void setUp() {
+		key = keyRegistry("HS256").currentKey();
+	}
+
+	@Test
+	void mintsTheSameTokenAsJjwt() {
+		Map<String, Object> claims = new LinkedHashMap<>();
+		claims.put("uid", 42);
+		claims.put("sid", "3f0c5a1e-7d7e-4b59-9a55-0d8f0a9c2b11");
+		claims.put("typ", "access");
+		claims.put("big", Long.MAX_VALUE);
+		claims.put("negative", (short) -7);
+
+		assertThat(minter.mint(key, claims, "user@example.com", ISSUED_AT, EXPIRES_AT))
+				.isEqualTo(jjwt(claims, "user@example.com"));
+	}
+
+	@Test
+	void escapesStringsTheWayJjwtDoes() {
+		Map<String, Object> claims = new LinkedHashMap<>();
+		claims.put("quote\"back\\slash", "line\nbreak\rreturn\ttab\bback\fform\u0001\u001bcontrol");
+		claims.put("name", "Nguyễn Văn A");
+		claims.put("emoji", "😀 €");
+
+		assertThat(minter.mint(key, claims, "người.dùng@example.com", ISSUED_AT, EXPIRES_AT))
+				.isEqualTo(jjwt(claims, "người.dùng@example.com"));
+	}
+
+	@Test
+	void registeredClaimsWinOverExtraClaimsAndNullsAreDropped() {
+		Map<String, Object> claims = new LinkedHashMap<>();
+		claims.put("sub", "someone-else");
+		claims.put("exp", 1);
+		claims.put("iat", "not a number");
+		claims.put("dropped", null);
+		claims.put("kept", "value");
+
+		assertThat(minter.mint(key, claims, "user@example.com", ISSUED_AT, EXPIRES_AT))
+				.isEqualTo(jjwt(claims, "user@example.com"));
+		assertThat(minter.mint(key, Map.of(), "user@example.com", ISSUED_AT, EXPIRES_AT))
+				.isEqualTo(jjwt(Map.of(), "user@example.com"));
+	}
+
+	@Test
+	void leavesWhatItDoesNotHandleToJjwt() {
+		assertThat(minter.mint(key, Map.of("roles", List.of("USER")), "user@example.com", ISSUED_AT, EXPIRES_AT)).isNull();
+		assertThat(minter.mint(key, Map.of("ratio", 0.5), "user@example.com", ISSUED_AT, EXPIRES_AT)).isNull();
+		assertThat(minter.mint(key, Map.of("broken", "\uD83D"), "user@example.com", ISSUED_AT, EXPIRES_AT)).isNull();
+		JwtSigningKey rsaKey = keyRegistry("RS256").currentKey();
+		assertThat(minter.mint(rsaKey, Map.of(), "user@example.com", ISSUED_AT, EXPIRES_AT)).isNull();
+	}
+
+	@Test
+	void base64UrlMatchesTheJdkEncoder() {
+		Random random = new Random(1);
+		Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+		for (int length = 0; length < 100; length++) {
+			byte[] bytes = new byte[length];
+			random.nextBytes(bytes);
+			byte[] encoded = new byte[Base64Url.encodedLength(length)];
+			assertThat(Base64Url.encode(bytes, length, encoded, 0)).isEqualTo(encoded.length);
+			String text = new String(encoded, StandardCharsets.US_ASCII);
+			assertThat(text).isEqualTo(encoder.encodeToString(bytes));
+
+			byte[] decoded = new byte[length];
+			assertThat(Base64Url.decode(text, 0, text.length(), decoded)).isEqualTo(length);
+			assertThat(decoded).isEqualTo(bytes);
+		}
+	}
+
+	@Test
+	void base64UrlRejectsNonCanonicalInput() {
+		byte[] target = new byte[16];
+		assertThat(Base64Url.decode("QQ==", 0, 4, target)).isEqualTo(-1);
+		assertThat(Base64Url.decode("QR", 0, 2, target)).isEqualTo(-1);
+		assertThat(Base64Url.decode("Q", 0, 1, target)).isEqualTo(-1);
+		assertThat(Base64Url.decode("a+b/", 0, 4, target)).isEqualTo(-1);
+		assertThat(Base64Url.decode("QUJD", 0, 4, new byte[2])).isEqualTo(-1);
+		assertThat(Base64Url.decode("QQ", 0, 2, target)).isEqualTo(1);
+	}
+
+	private String jjwt(Map<String, ?> claims, String subject) {
+		return Jwts.builder()
+				.setHeaderParam("kid", key.getKeyId())
+				.setClaims(new LinkedHashMap<>(claims))
+				.setSubject(subject)
+				.setIssuedAt(new Date(ISSUED_AT))
+				.setExpiration(new Date(EXPIRES_AT))
+				.signWith(key.getSigningKey(), key.getAlgorithm())
+				.compact();
+	}
+
+	private static JwtKeyRegistry keyRegistry(String algorithm) {
+		JwtKeyRegistry keyRegistry = new JwtKeyRegistry();
+		ReflectionTestUtils.setField(keyRegistry, "SECRET_KEY", SECRET);
+		ReflectionTestUtils.setField(keyRegistry, "PRIMARY_KEY_ID", "primary");
+		ReflectionTestUtils.setField(keyRegistry, "ADDITIONAL_KEYS", "");
+		ReflectionTestUtils.setField(keyRegistry, "SIGNING_KEY_ID", "");
+		ReflectionTestUtils.setField(keyRegistry, "RETIRED_KEY_IDS", "");
+		ReflectionTestUtils.setField(keyRegistry, "ALGORITHM", algorithm);
+		ReflectionTestUtils.setField(keyRegistry, "ASYMMETRIC_KEY_ID", "");
+		ReflectionTestUtils.setField(keyRegistry, "PRIVATE_KEY", "");
+		ReflectionTestUtils.setField(keyRegistry, "PUBLIC_KEY", "");
+		// The RS256 registry has no PEM configured
+		ReflectionTestUtils.setField(keyRegistry, "ALLOW_EPHEMERAL_KEY", true);
+		ReflectionTestUtils.setField(keyRegistry, "clusterEventBus", new InProcessClusterEventBus());
+		ReflectionTestUtils.setField(keyRegistry, "signingKeyStateRepository", mock(SigningKeyStateRepository.class));
+		keyRegistry.init();
+		return keyRegistry;
+	}
+}
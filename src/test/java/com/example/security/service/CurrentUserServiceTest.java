@@ -0,0 +1,82 @@
+package com.example.security.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Optional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.example.security.enums.Role;
+import com.example.security.model.TokenPrincipal;
+import com.example.security.model.User;
+import com.example.security.model.UserSnapshot;
+import com.example.security.repository.UserRepository;
+
+class CurrentUserServiceTest {
+	private final UserRepository userRepository = mock(UserRepository.class);
+	private CurrentUserService currentUserService;
+	private User user;
+
+	@BeforeEach
+	void setUp() {
+		currentUserService = new CurrentUserService();
+		ReflectionTestUtils.setField(currentUserService, "userRepository", userRepository);
+		user = User.builder().id(42).email("user@example.com").password("hash").role(Role.USER).build();
+	}
+
+	@AfterEach
+	void clearContext() {
+		SecurityContextHolder.clearContext();
+	}
+
+	@Test
+	void loadsTheUserOfATokenPrincipalOnlyWhenAsked() {
+		when(userRepository.findById(42)).thenReturn(Optional.of(user));
+		authenticate(new TokenPrincipal(42, "user@example.com", Role.USER));
+
+		assertThat(currentUserService.getCurrentUserId()).contains(42);
+		verifyNoInteractions(userRepository);
+
+		assertThat(currentUserService.getCurrentUser()).isSameAs(user);
+	}
+
+	@Test
+	void loadsTheUserOfACachedSnapshot() {
+		when(userRepository.findById(42)).thenReturn(Optional.of(user));
+		authenticate(UserSnapshot.from(user));
+
+		assertThat(currentUserService.getCurrentUserId()).contains(42);
+		assertThat(currentUserService.getCurrentUser()).isSameAs(user);
+	}
+
+	@Test
+	void rejectsADeletedUser() {
+		when(userRepository.findById(42)).thenReturn(Optional.empty());
+		authenticate(new TokenPrincipal(42, "user@example.com", Role.USER));
+
+		assertThatThrownBy(currentUserService::getCurrentUser).isInstanceOf(UsernameNotFoundException.class);
+	}
+
+	@Test
+	void hasNoUserWithoutAuthentication() {
+		assertThat(currentUserService.getCurrentUserId()).isEmpty();
+		assertThatThrownBy(currentUserService::getCurrentUser).isInstanceOf(UsernameNotFoundException.class);
+		verifyNoInteractions(userRepository);
+	}
+
+	private static void authenticate(UserDetails principal) {
+		SecurityContextHolder.getContext().setAuthentication(
+				new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities()));
+	}
+}
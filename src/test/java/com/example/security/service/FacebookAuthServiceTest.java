@@ -0,0 +1,192 @@
+package com.example.security.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import com.example.security.cache.UserDetailsCache;
+import com.example.security.dto.request.FacebookAuthRequest;
+import com.example.security.dto.response.AuthenticationResponse;
+import com.example.security.exception.ServiceOverloadedException;
+import com.example.security.model.User;
+import com.example.security.repository.UserRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class FacebookAuthServiceTest {
+	private static final String APP_ID = "app-1";
+	private static final String VALID = "{\"data\":{\"is_valid\":true,\"app_id\":\"" + APP_ID + "\"}}";
+	private static final String PROFILE = "{\"id\":\"fb-42\",\"email\":\"user@example.com\","
+			+ "\"first_name\":\"Ann\",\"last_name\":\"Lee\"}";
+
+	private final UserRepository userRepository = mock(UserRepository.class);
+	private final AuthenticationService authenticationService = mock(AuthenticationService.class);
+	private final GraphApi graphApi = new GraphApi();
+	private final AuthenticationResponse tokens = new AuthenticationResponse();
+	private FacebookAuthService facebookAuthService;
+
+	@BeforeEach
+	void setUp() {
+		when(userRepository.findByFacebookId(anyString())).thenReturn(Optional.empty());
+		when(userRepository.findByEmail(anyString())).thenReturn(Optional.empty());
+		when(userRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+		when(authenticationService.issueTokens(any(), any())).thenReturn(tokens);
+	}
+
+	@AfterEach
+	void tearDown() {
+		graphApi.release.countDown();
+		if (facebookAuthService != null) {
+			facebookAuthService.shutdown();
+		}
+	}
+
+	@Test
+	void signsInWithAVerifiedToken() {
+		facebookAuthService = service(4, 4, 5000);
+
+		assertThat(facebookAuthService.authenticateWithFacebook(request())).isSameAs(tokens);
+
+		verify(authenticationService).issueTokens(any(User.class), eq("device-1"));
+		verify(userRepository).save(any(User.class));
+	}
+
+	@Test
+	void callsBothEndpointsAtTheSameTimeWithinOneDeadline() {
+		// Each call alone fits the deadline, one after the other they would not
+		graphApi.verifyDelayMs = 300;
+		graphApi.profileDelayMs = 300;
+		facebookAuthService = service(4, 4, 500);
+
+		assertThat(facebookAuthService.authenticateWithFacebook(request())).isSameAs(tokens);
+	}
+
+	@Test
+	void theProfileWaitsOnlyForWhatIsLeftOfTheDeadline() {
+		// With a deadline per call the profile would get 500 ms more after verification
+		graphApi.verifyDelayMs = 300;
+		graphApi.profileDelayMs = 700;
+		facebookAuthService = service(4, 4, 500);
+
+		long started = System.nanoTime();
+		assertThatThrownBy(() -> facebookAuthService.authenticateWithFacebook(request()))
+				.hasMessageContaining("did not respond in time");
+		assertThat(System.nanoTime() - started).isLessThan(TimeUnit.MILLISECONDS.toNanos(700));
+		verifyNoInteractions(userRepository, authenticationService);
+	}
+
+	@Test
+	void discardsTheProfileOfARejectedToken() {
+		graphApi.verification = "{\"data\":{\"is_valid\":false}}";
+		facebookAuthService = service(4, 4, 5000);
+
+		assertThatThrownBy(() -> facebookAuthService.authenticateWithFacebook(request()))
+				.hasMessageContaining("Invalid Facebook access token");
+		verifyNoInteractions(userRepository, authenticationService);
+	}
+
+	@Test
+	void rejectsATokenIssuedToAnotherApp() {
+		graphApi.verification = "{\"data\":{\"is_valid\":true,\"app_id\":\"other-app\"}}";
+		facebookAuthService = service(4, 4, 5000);
+
+		assertThatThrownBy(() -> facebookAuthService.authenticateWithFacebook(request()))
+				.hasMessageContaining("app ID does not match");
+		verifyNoInteractions(userRepository, authenticationService);
+	}
+
+	@Test
+	void shedsLoginsWhenThePoolIsFull() throws Exception {
+		// One login takes the only thread and the only queue slot
+		graphApi.blocking = true;
+		facebookAuthService = service(1, 1, 5000);
+		CompletableFuture<AuthenticationResponse> first =
+				CompletableFuture.supplyAsync(() -> facebookAuthService.authenticateWithFacebook(request()));
+		waitUntil(() -> graphApi.started.getCount() == 0);
+
+		assertThatThrownBy(() -> facebookAuthService.authenticateWithFacebook(request()))
+				.isInstanceOfSatisfying(ServiceOverloadedException.class,
+						e -> assertThat(e.getRetryAfterSeconds()).isEqualTo(2));
+
+		graphApi.release.countDown();
+		assertThat(first.get(5, TimeUnit.SECONDS)).isSameAs(tokens);
+	}
+
+	private static FacebookAuthRequest request() {
+		return FacebookAuthRequest.builder().accessToken("fb-token").deviceId("device-1").build();
+	}
+
+	private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean()) {
+			assertThat(System.nanoTime()).as("condition not met within 5 s").isLessThan(deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private FacebookAuthService service(int threads, int queueCapacity, long timeoutMs) {
+		FacebookAuthService service = new FacebookAuthService();
+		ReflectionTestUtils.setField(service, "userRepository", userRepository);
+		ReflectionTestUtils.setField(service, "authenticationService", authenticationService);
+		ReflectionTestUtils.setField(service, "userDetailsCache", mock(UserDetailsCache.class));
+		ReflectionTestUtils.setField(service, "restTemplate", graphApi);
+		ReflectionTestUtils.setField(service, "facebookAppId", APP_ID);
+		ReflectionTestUtils.setField(service, "facebookAppSecret", "secret");
+		ReflectionTestUtils.setField(service, "FACEBOOK_THREADS", threads);
+		ReflectionTestUtils.setField(service, "FACEBOOK_QUEUE_CAPACITY", queueCapacity);
+		ReflectionTestUtils.setField(service, "FACEBOOK_TIMEOUT_MS", timeoutMs);
+		ReflectionTestUtils.setField(service, "FACEBOOK_RETRY_AFTER_SECONDS", 2L);
+		ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+		service.init();
+		return service;
+	}
+
+	// Stands in for the Graph API: debug_token answers with the verification, /me with the profile
+	private static class GraphApi extends RestTemplate {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		volatile boolean blocking;
+		volatile String verification = VALID;
+		volatile long verifyDelayMs;
+		volatile long profileDelayMs;
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> ResponseEntity<T> exchange(String url, HttpMethod method, HttpEntity<?> requestEntity,
+				Class<T> responseType, Object... uriVariables) {
+			started.countDown();
+			boolean debugToken = url.contains("/debug_token");
+			try {
+				if (blocking) {
+					release.await(5, TimeUnit.SECONDS);
+				}
+				Thread.sleep(debugToken ? verifyDelayMs : profileDelayMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Cancelled", e);
+			}
+			return (ResponseEntity<T>) ResponseEntity.ok(debugToken ? verification : PROFILE);
+		}
+	}
+}
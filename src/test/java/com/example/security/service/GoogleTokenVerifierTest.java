@@ -0,0 +1,218 @@
+package com.example.security.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.example.security.http.ProviderHttpClient;
+import com.example.security.http.ProviderHttpSettings;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+// Runs the verifier against a local stand-in for Google's certificate endpoint
+class GoogleTokenVerifierTest {
+	private static final String CLIENT_ID = "test-client.apps.googleusercontent.com";
+	private static final ProviderHttpSettings SETTINGS = ProviderHttpSettings.builder()
+			.maxConnections(4)
+			.connectTimeoutMs(500)
+			.responseTimeoutMs(500)
+			.connectionRequestTimeoutMs(200)
+			.keepAliveSeconds(30)
+			.maxConcurrentCalls(2)
+			.bulkheadWaitMs(200)
+			.failureThreshold(100)
+			.openSeconds(1)
+			.build();
+
+	private HttpServer server;
+	private SimpleMeterRegistry meterRegistry;
+	private GoogleTokenVerifier verifier;
+	private final AtomicInteger fetches = new AtomicInteger();
+	private volatile int status = 200;
+	private volatile long delayMs;
+	private volatile String certs;
+
+	@BeforeEach
+	void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/certs", this::handle);
+		server.start();
+		meterRegistry = new SimpleMeterRegistry();
+	}
+
+	@AfterEach
+	void stop() {
+		if (verifier != null) {
+			verifier.shutdown();
+		}
+		server.stop(0);
+	}
+
+	@Test
+	void fetchesTheKeysOnceForManyLogins() throws Exception {
+		certs = certs("key-1", "cert1.pem");
+		verifier = verifier(600);
+		waitForKeys();
+
+		String idToken = idToken("key-1", "key1.pem", CLIENT_ID);
+		for (int i = 0; i < 20; i++) {
+			assertThat(verifier.verify(idToken)).isNotNull();
+		}
+		assertThat(fetches.get()).isEqualTo(1);
+		assertThat(meterRegistry.get("google.certs.expires-in-seconds").gauge().value()).isGreaterThan(3000);
+	}
+
+	@Test
+	void rejectsTokensForAnotherClient() throws Exception {
+		certs = certs("key-1", "cert1.pem");
+		verifier = verifier(600);
+		waitForKeys();
+
+		assertThat(verifier.verify(idToken("key-1", "key1.pem", "someone-else"))).isNull();
+		assertThat(verifier.verify(idToken("key-1", "key2.pem", CLIENT_ID))).isNull();
+	}
+
+	@Test
+	void keepsTheCurrentKeysWhenAFetchFails() throws Exception {
+		certs = certs("key-1", "cert1.pem");
+		// Refreshes on every check, since the keys are always within refresh-ahead of expiring
+		verifier = verifier(7200);
+		waitForKeys();
+
+		status = 500;
+		waitUntil(() -> meterRegistry.get("google.certs.fetch.failures").counter().count() >= 2);
+		assertThat(verifier.verify(idToken("key-1", "key1.pem", CLIENT_ID))).isNotNull();
+	}
+
+	@Test
+	void givesUpOnASlowKeyServer() throws Exception {
+		certs = certs("key-1", "cert1.pem");
+		verifier = verifier(7200);
+		waitForKeys();
+
+		// Well past the response timeout, well short of google-http-client's own 20 s
+		delayMs = 3000;
+		waitUntil(() -> meterRegistry.get("google.certs.fetch.failures").counter().count() >= 1);
+		assertThat(verifier.verify(idToken("key-1", "key1.pem", CLIENT_ID))).isNotNull();
+	}
+
+	@Test
+	void swapsInNewKeysOnceAFetchSucceeds() throws Exception {
+		certs = certs("key-1", "cert1.pem");
+		verifier = verifier(7200);
+		waitForKeys();
+		String oldToken = idToken("key-1", "key1.pem", CLIENT_ID);
+		String newToken = idToken("key-2", "key2.pem", CLIENT_ID);
+		assertThat(verifier.verify(newToken)).isNull();
+
+		certs = certs("key-2", "cert2.pem");
+		waitUntil(() -> {
+			try {
+				return verifier.verify(newToken) != null;
+			} catch (Exception e) {
+				return false;
+			}
+		});
+		assertThat(verifier.verify(oldToken)).isNull();
+	}
+
+	private GoogleTokenVerifier verifier(long refreshAheadSeconds) {
+		GoogleTokenVerifier verifier = new GoogleTokenVerifier();
+		ReflectionTestUtils.setField(verifier, "googleClientId", CLIENT_ID);
+		ReflectionTestUtils.setField(verifier, "CERTS_URL",
+				"http://127.0.0.1:" + server.getAddress().getPort() + "/certs");
+		ReflectionTestUtils.setField(verifier, "REFRESH_AHEAD_SECONDS", refreshAheadSeconds);
+		ReflectionTestUtils.setField(verifier, "CHECK_INTERVAL_MS", 50L);
+		ReflectionTestUtils.setField(verifier, "meterRegistry", meterRegistry);
+		ReflectionTestUtils.setField(verifier, "googleHttpClient", new ProviderHttpClient("google", SETTINGS, meterRegistry));
+		verifier.init();
+		return verifier;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		fetches.incrementAndGet();
+		if (delayMs > 0) {
+			try {
+				Thread.sleep(delayMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (status != 200) {
+			exchange.sendResponseHeaders(status, -1);
+			exchange.close();
+			return;
+		}
+		byte[] body = certs.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.getResponseHeaders().add("Cache-Control", "public, max-age=3600");
+		exchange.sendResponseHeaders(200, body.length);
+		exchange.getResponseBody().write(body);
+		exchange.close();
+	}
+
+	private static String idToken(String keyId, String privateKey, String audience) throws Exception {
+		long now = System.currentTimeMillis();
+		return Jwts.builder()
+				.setHeaderParam("kid", keyId)
+				.setIssuer("https://accounts.google.com")
+				.setAudience(audience)
+				.setSubject("110248495921238986420")
+				.claim("email", "user@example.com")
+				.setIssuedAt(new Date(now))
+				.setExpiration(new Date(now + TimeUnit.HOURS.toMillis(1)))
+				.signWith(privateKey(privateKey), SignatureAlgorithm.RS256)
+				.compact();
+	}
+
+	// Same shape as https://www.googleapis.com/oauth2/v1/certs: kid to PEM certificate
+	private static String certs(String keyId, String certificate) throws IOException {
+		return new ObjectMapper().writeValueAsString(Map.of(keyId, resource(certificate)));
+	}
+
+	private static PrivateKey privateKey(String name) throws Exception {
+		String body = resource(name).replaceAll("-----(BEGIN|END) PRIVATE KEY-----", "").replaceAll("\\s", "");
+		return KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(Base64.getDecoder().decode(body)));
+	}
+
+	private static String resource(String name) throws IOException {
+		try (InputStream in = GoogleTokenVerifierTest.class.getResourceAsStream("/google-certs/" + name)) {
+			return new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+		}
+	}
+
+	// The handler counts a fetch before it answers, so wait until the keys are actually in use
+	private void waitForKeys() throws InterruptedException {
+		waitUntil(() -> meterRegistry.get("google.certs.expires-in-seconds").gauge().value() > 0);
+	}
+
+	private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean()) {
+			assertThat(System.nanoTime()).as("condition not met within 5 s").isLessThan(deadline);
+			Thread.sleep(20);
+		}
+	}
+}
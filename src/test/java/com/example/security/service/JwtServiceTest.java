@@ -0,0 +1,66 @@
+package com.example.security.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.example.security.jwt.VerifiedToken;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+
+class JwtServiceTest {
+	private static final long ACCESS_TTL = TimeUnit.MINUTES.toMillis(15);
+	private static final long REFRESH_TTL = TimeUnit.DAYS.toMillis(7);
+
+	private JwtService jwtService;
+	private long now;
+
+	@BeforeEach
+	void setUp() {
+		jwtService = new JwtService();
+		ReflectionTestUtils.setField(jwtService, "ACCESS_TOKEN_EXPIRATION", ACCESS_TTL);
+		ReflectionTestUtils.setField(jwtService, "REFRESH_TOKEN_EXPIRATION", REFRESH_TTL);
+		now = System.currentTimeMillis() / 1000 * 1000;
+	}
+
+	@Test
+	void tellsTokensApartByTheirTyp() {
+		VerifiedToken access = token(Map.of("typ", "access"), ACCESS_TTL);
+		VerifiedToken refresh = token(Map.of("typ", "refresh"), REFRESH_TTL);
+
+		assertThat(jwtService.isAccessToken(access)).isTrue();
+		assertThat(jwtService.isRefreshToken(access)).isFalse();
+		assertThat(jwtService.isAccessToken(refresh)).isFalse();
+		assertThat(jwtService.isRefreshToken(refresh)).isTrue();
+		// The claim wins over the lifetime
+		assertThat(jwtService.isAccessToken(token(Map.of("typ", "refresh"), ACCESS_TTL))).isFalse();
+		assertThat(jwtService.isRefreshToken(token(Map.of("typ", "other"), REFRESH_TTL))).isFalse();
+	}
+
+	@Test
+	void tellsTokensFromBeforeTheTypClaimApartByTheirLifetime() {
+		VerifiedToken access = token(Map.of("uid", 42), ACCESS_TTL);
+		VerifiedToken refresh = token(Map.of("uid", 42), REFRESH_TTL);
+
+		assertThat(jwtService.isAccessToken(access)).isTrue();
+		assertThat(jwtService.isRefreshToken(access)).isFalse();
+		assertThat(jwtService.isAccessToken(refresh)).isFalse();
+		assertThat(jwtService.isRefreshToken(refresh)).isTrue();
+	}
+
+	private VerifiedToken token(Map<String, Object> claims, long lifetime) {
+		Claims body = Jwts.claims(new LinkedHashMap<>(claims));
+		body.setSubject("user@example.com");
+		body.setIssuedAt(new Date(now));
+		body.setExpiration(new Date(now + lifetime));
+		return VerifiedToken.from("primary", body);
+	}
+}
@@ -0,0 +1,250 @@
+package com.example.security.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class RefreshTokenPurgerTest {
+	private static final Instant NOW = Instant.now();
+
+	private final FakeDatabase database = new FakeDatabase();
+	private final List<RefreshTokenPurger> purgers = new ArrayList<>();
+
+	@BeforeEach
+	void setUp() {
+		// Two rows share an expiry so the cursor has to break the tie by id
+		database.token(1, NOW.minusSeconds(500));
+		database.token(2, NOW.minusSeconds(400));
+		database.token(3, NOW.minusSeconds(400));
+		database.token(4, NOW.minusSeconds(300));
+		database.token(5, NOW.minusSeconds(200));
+		database.token(6, NOW.plusSeconds(600));
+	}
+
+	@AfterEach
+	void tearDown() {
+		purgers.forEach(RefreshTokenPurger::shutdown);
+	}
+
+	@Test
+	void aPassDeletesEveryExpiredTokenInBatches() {
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		RefreshTokenPurger purger = purger(meterRegistry);
+
+		ReflectionTestUtils.invokeMethod(purger, "pass");
+
+		assertThat(database.tokens).containsOnlyKeys(6L);
+		assertThat(database.selects).hasSize(3);
+		assertThat(meterRegistry.get("refresh-token-purge.deleted").counter().count()).isEqualTo(5);
+		assertThat(meterRegistry.get("refresh-token-purge.backlog.rows").gauge().value()).isZero();
+		assertThat(meterRegistry.get("refresh-token-purge.leader").gauge().value()).isEqualTo(1);
+	}
+
+	@Test
+	void eachBatchStartsAfterTheSavedCursor() {
+		RefreshTokenPurger purger = purger(new SimpleMeterRegistry());
+
+		assertThat(deleteBatch(purger)).isEqualTo(2);
+		assertThat(database.cursorExpiryDate).isEqualTo(NOW.minusSeconds(400));
+		assertThat(database.cursorId).isEqualTo(2);
+
+		assertThat(deleteBatch(purger)).isEqualTo(2);
+		// Resumed from the cursor rather than rescanning from the oldest expiry
+		assertThat(database.selects.get(1)).containsExactly(NOW.minusSeconds(400), 2L);
+		assertThat(database.tokens).containsOnlyKeys(5L, 6L);
+	}
+
+	@Test
+	void aRestartedNodeResumesFromTheSavedCursor() {
+		RefreshTokenPurger purger = purger(new SimpleMeterRegistry());
+		deleteBatch(purger);
+		purger.shutdown();
+
+		RefreshTokenPurger restarted = purger(new SimpleMeterRegistry());
+		assertThat(deleteBatch(restarted)).isEqualTo(2);
+
+		assertThat(database.selects.get(1)).containsExactly(NOW.minusSeconds(400), 2L);
+		assertThat(database.tokens).containsOnlyKeys(5L, 6L);
+	}
+
+	@Test
+	void onlyTheLeaseHolderPurges() {
+		SimpleMeterRegistry leaderMetrics = new SimpleMeterRegistry();
+		SimpleMeterRegistry followerMetrics = new SimpleMeterRegistry();
+		RefreshTokenPurger leader = purger(leaderMetrics);
+		RefreshTokenPurger follower = purger(followerMetrics);
+		deleteBatch(leader);
+
+		assertThat(deleteBatch(follower)).isEqualTo(-1);
+		assertThat(database.tokens).hasSize(4);
+		assertThat(leaderMetrics.get("refresh-token-purge.leader").gauge().value()).isEqualTo(1);
+		assertThat(followerMetrics.get("refresh-token-purge.leader").gauge().value()).isZero();
+
+		// The leader stops renewing, e.g. after a crash
+		database.leaseUntil = System.currentTimeMillis() - 1;
+		assertThat(deleteBatch(follower)).isEqualTo(2);
+		assertThat(deleteBatch(leader)).isEqualTo(-1);
+		assertThat(leaderMetrics.get("refresh-token-purge.leader").gauge().value()).isZero();
+		assertThat(followerMetrics.get("refresh-token-purge.leader").gauge().value()).isEqualTo(1);
+	}
+
+	@Test
+	void shuttingDownReleasesTheLease() {
+		RefreshTokenPurger leader = purger(new SimpleMeterRegistry());
+		RefreshTokenPurger follower = purger(new SimpleMeterRegistry());
+		deleteBatch(leader);
+
+		leader.shutdown();
+
+		assertThat(deleteBatch(follower)).isEqualTo(2);
+	}
+
+	private int deleteBatch(RefreshTokenPurger purger) {
+		return ReflectionTestUtils.<Integer>invokeMethod(purger, "deleteBatch", NOW);
+	}
+
+	private RefreshTokenPurger purger(SimpleMeterRegistry meterRegistry) {
+		RefreshTokenPurger purger = new RefreshTokenPurger();
+		ReflectionTestUtils.setField(purger, "ENABLED", true);
+		ReflectionTestUtils.setField(purger, "BATCH_SIZE", 2);
+		// Passes only run when a test invokes them
+		ReflectionTestUtils.setField(purger, "INTERVAL_MS", TimeUnit.HOURS.toMillis(1));
+		ReflectionTestUtils.setField(purger, "MAX_DUTY_CYCLE", 0.5);
+		ReflectionTestUtils.setField(purger, "MAX_ROWS_PER_SECOND", 100_000);
+		ReflectionTestUtils.setField(purger, "LEASE_SECONDS", 180L);
+		ReflectionTestUtils.setField(purger, "jdbcTemplate", database);
+		ReflectionTestUtils.setField(purger, "transactionManager", mock(PlatformTransactionManager.class));
+		ReflectionTestUtils.setField(purger, "meterRegistry", meterRegistry);
+		purger.init();
+		purgers.add(purger);
+		return purger;
+	}
+
+	// Stands in for the refresh_tokens and maintenance_leases tables, answering the statements the purger issues
+	private static class FakeDatabase extends JdbcTemplate {
+		final Map<Long, Instant> tokens = new ConcurrentHashMap<>();
+		// Cursor (expiry date, id) each SELECT started after
+		final List<List<Object>> selects = new CopyOnWriteArrayList<>();
+		boolean leaseExists;
+		String leaseOwner;
+		long leaseUntil;
+		Instant cursorExpiryDate;
+		long cursorId;
+
+		void token(long id, Instant expiryDate) {
+			tokens.put(id, expiryDate);
+		}
+
+		@Override
+		public synchronized int update(String sql, Object... args) {
+			if (sql.startsWith("UPDATE maintenance_leases SET owner")) {
+				String owner = (String) args[0];
+				if (!leaseExists || !(owner.equals(leaseOwner) || leaseUntil < (long) args[4])) {
+					return 0;
+				}
+				leaseOwner = owner;
+				leaseUntil = (long) args[1];
+				return 1;
+			}
+			if (sql.startsWith("INSERT IGNORE INTO maintenance_leases")) {
+				if (leaseExists) {
+					return 0;
+				}
+				leaseExists = true;
+				leaseOwner = (String) args[1];
+				leaseUntil = (long) args[2];
+				return 1;
+			}
+			if (sql.startsWith("UPDATE maintenance_leases SET lease_until = 0")) {
+				if (!args[1].equals(leaseOwner)) {
+					return 0;
+				}
+				leaseUntil = 0;
+				return 1;
+			}
+			if (sql.startsWith("UPDATE maintenance_leases SET cursor_expiry_date")) {
+				cursorExpiryDate = ((Timestamp) args[0]).toInstant();
+				cursorId = (long) args[1];
+				return 1;
+			}
+			if (sql.startsWith("DELETE FROM refresh_tokens")) {
+				return (int) Arrays.stream(args).filter(id -> tokens.remove((Long) id) != null).count();
+			}
+			throw new AssertionError("Unexpected statement: " + sql);
+		}
+
+		@Override
+		public synchronized <T> List<T> query(String sql, RowMapper<T> rowMapper, Object... args) {
+			List<T> results = new ArrayList<>();
+			try {
+				if (sql.startsWith("SELECT cursor_expiry_date")) {
+					if (leaseExists) {
+						results.add(rowMapper.mapRow(row(cursorId,
+								cursorExpiryDate != null ? Timestamp.from(cursorExpiryDate) : null), 0));
+					}
+					return results;
+				}
+				if (sql.startsWith("SELECT id, expiry_date FROM refresh_tokens")) {
+					Instant cutoff = ((Timestamp) args[0]).toInstant();
+					Instant from = ((Timestamp) args[1]).toInstant();
+					long fromId = (long) args[3];
+					selects.add(List.of(from, fromId));
+					List<Map.Entry<Long, Instant>> expired = tokens.entrySet().stream()
+							.filter(token -> token.getValue().isBefore(cutoff))
+							.filter(token -> token.getValue().isAfter(from)
+									|| token.getValue().equals(from) && token.getKey() > fromId)
+							.sorted(Map.Entry.<Long, Instant>comparingByValue()
+									.thenComparing(Map.Entry.comparingByKey(Comparator.naturalOrder())))
+							.limit((int) args[4])
+							.toList();
+					for (Map.Entry<Long, Instant> token : expired) {
+						results.add(rowMapper.mapRow(row(token.getKey(), Timestamp.from(token.getValue())), 0));
+					}
+					return results;
+				}
+			} catch (SQLException e) {
+				throw new AssertionError(e);
+			}
+			throw new AssertionError("Unexpected query: " + sql);
+		}
+
+		@Override
+		public synchronized <T> T queryForObject(String sql, Class<T> requiredType, Object... args) {
+			Instant cutoff = ((Timestamp) args[0]).toInstant();
+			return requiredType.cast(tokens.values().stream().filter(expiry -> expiry.isBefore(cutoff)).count());
+		}
+
+		// Both queries the purger maps read an id and a timestamp, in either column order
+		private static ResultSet row(long id, Timestamp timestamp) throws SQLException {
+			ResultSet rs = mock(ResultSet.class);
+			when(rs.getLong(1)).thenReturn(id);
+			when(rs.getLong(2)).thenReturn(id);
+			when(rs.getTimestamp(1)).thenReturn(timestamp);
+			when(rs.getTimestamp(2)).thenReturn(timestamp);
+			return rs;
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package com.example.security.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.example.security.exception.ServiceOverloadedException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class RefreshTokenWriterTest {
+	private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+	private final List<Integer> batches = new CopyOnWriteArrayList<>();
+	private final CountDownLatch commits = new CountDownLatch(1);
+	private volatile boolean blockCommits;
+	private RefreshTokenWriter writer;
+
+	@BeforeEach
+	void setUp() {
+		when(jdbcTemplate.batchUpdate(anyString(), anyCollection(), anyInt(), any())).thenAnswer(invocation -> {
+			if (blockCommits) {
+				commits.await();
+			}
+			batches.add(invocation.<Collection<?>>getArgument(1).size());
+			return new int[0][];
+		});
+	}
+
+	@AfterEach
+	void tearDown() throws InterruptedException {
+		commits.countDown();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.clearSynchronization();
+		}
+		if (writer != null) {
+			writer.shutdown();
+		}
+	}
+
+	@Test
+	void syncModeWritesInTheCallersTransaction() {
+		writer = writer("sync", 5000);
+		AtomicBoolean sessionStarted = new AtomicBoolean();
+
+		writer.upsert(42, "device-1", "refresh-token", expiry(), () -> sessionStarted.set(true));
+
+		verify(jdbcTemplate).update(anyString(), any(), any(), any(), any());
+		assertThat(sessionStarted).isTrue();
+		assertThat(batches).isEmpty();
+	}
+
+	@Test
+	void groupCommitWritesOnlyAfterTheCallerCommits() {
+		writer = writer("group-commit", 5000);
+		AtomicBoolean sessionStarted = new AtomicBoolean();
+		TransactionSynchronizationManager.initSynchronization();
+
+		writer.upsert(42, "device-1", "refresh-token", expiry(), () -> sessionStarted.set(true));
+		assertThat(batches).isEmpty();
+		assertThat(sessionStarted).isFalse();
+
+		TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+
+		assertThat(batches).containsExactly(1);
+		assertThat(sessionStarted).isTrue();
+		verify(jdbcTemplate, never()).update(anyString(), any(), any(), any(), any());
+	}
+
+	@Test
+	void concurrentLoginsShareOneBatch() throws Exception {
+		writer = writer("group-commit", 5000);
+		blockCommits = true;
+		CompletableFuture<Void> first = login(1);
+		waitUntilQueueIsEmpty();
+		List<CompletableFuture<Void>> waiting = List.of(login(2), login(3), login(4));
+		waitUntilQueued(3);
+
+		commits.countDown();
+		first.get(5, TimeUnit.SECONDS);
+		for (CompletableFuture<Void> login : waiting) {
+			login.get(5, TimeUnit.SECONDS);
+		}
+
+		assertThat(batches).containsExactly(1, 3);
+	}
+
+	@Test
+	void aTimedOutLoginLeavesNoSessionBehind() throws Exception {
+		writer = writer("group-commit", 200);
+		blockCommits = true;
+		CompletableFuture<Void> first = CompletableFuture.runAsync(() ->
+				writer.upsert(1, "device-1", "refresh-token-1", expiry(), () -> { }));
+		waitUntilQueueIsEmpty();
+		AtomicBoolean sessionStarted = new AtomicBoolean();
+
+		assertThatThrownBy(() -> writer.upsert(42, "device-1", "refresh-token", expiry(), () -> sessionStarted.set(true)))
+				.isInstanceOf(ServiceOverloadedException.class);
+		commits.countDown();
+		assertThatThrownBy(() -> first.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(ServiceOverloadedException.class);
+		writer.shutdown();
+
+		assertThat(sessionStarted).isFalse();
+		// The row that timed out while still queued is never written
+		assertThat(batches).containsExactly(1);
+	}
+
+	private CompletableFuture<Void> login(int userId) {
+		return CompletableFuture.runAsync(() ->
+				writer.upsert(userId, "device-1", "refresh-token-" + userId, expiry(), () -> { }));
+	}
+
+	private void waitUntilQueueIsEmpty() throws InterruptedException {
+		waitUntilQueued(0);
+		// The writer has taken the first row; give it time to reach the blocked commit
+		Thread.sleep(50);
+	}
+
+	private void waitUntilQueued(int rows) throws InterruptedException {
+		Collection<?> queue = (Collection<?>) ReflectionTestUtils.getField(writer, "queue");
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (queue.size() != rows) {
+			assertThat(System.nanoTime()).as("%d rows not queued within 5 s", rows).isLessThan(deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private RefreshTokenWriter writer(String mode, long timeoutMs) {
+		PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+		when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+		RefreshTokenWriter writer = new RefreshTokenWriter();
+		ReflectionTestUtils.setField(writer, "MODE", mode);
+		ReflectionTestUtils.setField(writer, "BATCH_SIZE", 200);
+		ReflectionTestUtils.setField(writer, "TIMEOUT_MS", timeoutMs);
+		ReflectionTestUtils.setField(writer, "RETRY_AFTER_SECONDS", 2L);
+		ReflectionTestUtils.setField(writer, "jdbcTemplate", jdbcTemplate);
+		ReflectionTestUtils.setField(writer, "transactionManager", transactionManager);
+		ReflectionTestUtils.setField(writer, "meterRegistry", new SimpleMeterRegistry());
+		writer.init();
+		return writer;
+	}
+
+	private static Instant expiry() {
+		return Instant.now().plusSeconds(3600);
+	}
+}